@@ -0,0 +1,136 @@
+package core.io;
+
+import core.manager.MessagesManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ApiServer.ApiRunnable} request parsing and response generation without the network stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class ApiServerBenchmark {
+
+    private static final String PEER_ID = "BenchmarkPeerId";
+
+    private static final byte[] MESSAGES_REQUEST = """
+            GET /messages HTTP/1.1\r
+            Host: localhost:8000\r
+            Accept: */*\r
+            \r
+            """.getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] SEND_REQUEST = """
+            GET /send?message=Hello%20%3Cb%3Eworld%3C%2Fb%3E HTTP/1.1\r
+            Host: localhost:8000\r
+            Accept: */*\r
+            \r
+            """.getBytes(StandardCharsets.UTF_8);
+
+    @Param({ "100", "1000", "10000" })
+    public int historyLimit;
+
+    private ApiServer server;
+    private MessagesManager msgMgr;
+
+    @Setup
+    public void setup() {
+        msgMgr = new MessagesManager(historyLimit);
+        long id = System.currentTimeMillis();
+        for (int i = 0; i < historyLimit; i++) {
+            msgMgr.addMessage(id + i, PEER_ID, "Benchmark message content number " + i);
+        }
+        server = new ApiServer(0, PEER_ID, msgMgr);
+    }
+
+    @Benchmark
+    public long messages() {
+        return process(MESSAGES_REQUEST);
+    }
+
+    @Benchmark
+    public long send() {
+        return process(SEND_REQUEST);
+    }
+
+    private long process(byte[] request) {
+        InMemorySocket socket = new InMemorySocket(request);
+        server.new ApiRunnable(socket, PEER_ID, msgMgr).run();
+        return socket.out.count;
+    }
+
+    /**
+     * Socket replaying prepared request and counting response bytes.
+     */
+    static class InMemorySocket extends Socket {
+        private final InputStream in;
+        private final CountingOutputStream out = new CountingOutputStream();
+
+        InMemorySocket(byte[] request) {
+            this.in = new ByteArrayInputStream(request);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return 0;
+        }
+
+        @Override
+        public synchronized void close() {
+            // nothing to release
+        }
+    }
+
+    /**
+     * Output stream discarding written bytes.
+     */
+    static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package core.manager;
+
+import core.model.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MessagesManager} store and read paths for different history limits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class MessagesManagerBenchmark {
+
+    private static final String PEER_ID = "BenchmarkPeerId";
+    private static final String MESSAGE = "Benchmark message content";
+
+    @Param({ "100", "1000", "10000" })
+    public int historyLimit;
+
+    @Param({ "skiplist", "ring" })
+    public String store;
+
+    private MessagesManager msgMgr;
+    private long nextId;
+
+    @Setup
+    public void setup() {
+        msgMgr = new MessagesManager(historyLimit, HistoryStore.fromString(store));
+        // fill history up to the limit, so every following add evicts the oldest message
+        for (nextId = 1; nextId <= historyLimit; nextId++) {
+            msgMgr.addMessage(nextId, PEER_ID, MESSAGE);
+        }
+    }
+
+    @Benchmark
+    public void addMessage() {
+        msgMgr.addMessage(nextId++, PEER_ID, MESSAGE);
+    }
+
+    @Benchmark
+    public void getMessages(Blackhole bh) {
+        Map<Long, Message> messages = msgMgr.getMessages();
+        for (Entry<Long, Message> entry : messages.entrySet()) {
+            bh.consume(entry.getKey());
+            bh.consume(entry.getValue());
+        }
+    }
+}
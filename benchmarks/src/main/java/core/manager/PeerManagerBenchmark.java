@@ -0,0 +1,57 @@
+package core.manager;
+
+import core.model.Peer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PeerManager} lookups with large amount of known peers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class PeerManagerBenchmark {
+
+    // long enough to never expire peers during the measurement
+    private static final int PEER_TIMEOUT_MS = Integer.MAX_VALUE;
+
+    @Param({ "1000", "5000" })
+    public int peerCount;
+
+    private PeerManager peerMgr;
+
+    @Setup
+    public void setup() {
+        peerMgr = new PeerManager(PEER_TIMEOUT_MS);
+        for (int i = 0; i < peerCount; i++) {
+            peerMgr.addPeer("Peer" + i, "10.0." + (i / 256) + "." + (i % 256), 9876);
+        }
+    }
+
+    @Benchmark
+    public void getPeers(Blackhole bh) {
+        for (Peer peer : peerMgr.getPeers()) {
+            bh.consume(peer);
+        }
+    }
+
+    @Benchmark
+    public void addExistingPeer() {
+        peerMgr.addPeer("Peer0", "10.0.0.0", 9876);
+    }
+}
@@ -0,0 +1,75 @@
+package core.util;
+
+import core.model.Command;
+import core.model.Message;
+import core.model.Request;
+import core.model.Response;
+import core.model.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link JsonUtil} mapping of the peer protocol records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class JsonUtilBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int messageCount;
+
+    private Request request;
+    private String requestJson;
+    private Response response;
+    private String responseJson;
+
+    @Setup
+    public void setup() {
+        Map<Long, Message> messages = new TreeMap<>();
+        long id = System.currentTimeMillis();
+        for (int i = 0; i < messageCount; i++) {
+            messages.put(id + i, new Message("BenchmarkPeerId", "Benchmark message content number " + i));
+        }
+        request = new Request(Command.NEW_MESSAGE, "BenchmarkPeerId", id, "Benchmark message content");
+        requestJson = JsonUtil.toJson(request);
+        response = new Response(Status.OK, messages, null, null);
+        responseJson = JsonUtil.toJson(response);
+    }
+
+    @Benchmark
+    public String requestToJson() {
+        return JsonUtil.toJson(request);
+    }
+
+    @Benchmark
+    public Request requestFromJson() {
+        return JsonUtil.fromJson(requestJson, Request.class);
+    }
+
+    @Benchmark
+    public String responseToJson() {
+        return JsonUtil.toJson(response);
+    }
+
+    @Benchmark
+    public Response responseFromJson() {
+        return JsonUtil.fromJson(responseJson, Response.class);
+    }
+}
@@ -2,11 +2,18 @@ package core;
 
 import core.io.ApiServer;
 import core.io.DiscoveryClient;
+import core.io.DiscoveryMode;
 import core.io.DiscoveryServer;
+import core.io.ExecutionMode;
 import core.io.MessagingClient;
 import core.io.MessagingServer;
+import core.manager.HistoryStore;
+import core.manager.IdGenerator;
+import core.manager.IdGeneratorType;
+import core.manager.MessageLog;
 import core.manager.MessagesManager;
 import core.manager.PeerManager;
+import core.model.Feature;
 import core.util.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,7 +23,9 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.NetworkInterface;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -63,10 +72,32 @@ public class App {
 
         Integer peerTimeoutMs = Config.getProperty(prop, Config.PROP_PEER_TIMEOUT_MS, Integer.class);
         Integer historyLimit = Config.getProperty(prop, Config.PROP_HISTORY_LIMIT, Integer.class);
+        HistoryStore historyStore = HistoryStore
+                .fromString(Config.getProperty(prop, Config.PROP_HISTORY_STORE, String.class));
+        String historyDir = Config.getProperty(prop, Config.PROP_HISTORY_DIR, String.class);
+        Integer historySegmentBytes = Config.getProperty(prop, Config.PROP_HISTORY_SEGMENT_BYTES, Integer.class);
+        IdGeneratorType idGeneratorType = IdGeneratorType
+                .fromString(Config.getProperty(prop, Config.PROP_MESSAGE_ID_GENERATOR, String.class));
+        Integer idNode = Config.getProperty(prop, Config.PROP_MESSAGE_ID_NODE, Integer.class);
         Integer defaultPacketBufferLength = Config.getProperty(prop, Config.PROP_DEFAULT_PACKET_BUFFER_LENGTH,
                 Integer.class);
         String broadcastAddress = Config.getProperty(prop, Config.PROP_BROADCAST_ADDRESS, String.class);
         Integer broadcastTimeoutMs = Config.getProperty(prop, Config.PROP_BROADCAST_TIMEOUT_MS, Integer.class);
+        Integer broadcastMinIntervalMs = Config.getProperty(prop, Config.PROP_BROADCAST_MIN_INTERVAL_MS,
+                Integer.class);
+        Integer broadcastMaxIntervalMs = Config.getProperty(prop, Config.PROP_BROADCAST_MAX_INTERVAL_MS,
+                Integer.class);
+        if (broadcastMaxIntervalMs == null || broadcastMaxIntervalMs <= 0) {
+            // fixed interval
+            broadcastMinIntervalMs = broadcastTimeoutMs;
+            broadcastMaxIntervalMs = broadcastTimeoutMs;
+        }
+        DiscoveryMode discoveryMode = DiscoveryMode
+                .fromString(Config.getProperty(prop, Config.PROP_DISCOVERY_MODE, String.class));
+        String multicastGroup = Config.getProperty(prop, Config.PROP_DISCOVERY_MULTICAST_GROUP, String.class);
+        Integer multicastTtl = Config.getProperty(prop, Config.PROP_DISCOVERY_MULTICAST_TTL, Integer.class);
+        NetworkInterface multicastInterface = DiscoveryMode
+                .networkInterface(Config.getProperty(prop, Config.PROP_DISCOVERY_MULTICAST_INTERFACE, String.class));
         Integer msgPort = Config.getProperty(prop, Config.PROP_MSG_PORT, Integer.class);
         Integer broadcastPort = Config.getProperty(prop, Config.PROP_BROADCAST_PORT, Integer.class);
         // we are leaving that for the troubleshooting mode only
@@ -78,25 +109,62 @@ public class App {
             broadcastPort = msgPort;
         }
         Integer apiPort = Config.getProperty(prop, Config.PROP_API_PORT, Integer.class);
+        ExecutionMode msgServerMode = ExecutionMode
+                .fromString(Config.getProperty(prop, Config.PROP_MSG_SERVER_MODE, String.class));
+        Integer msgEventLoops = Config.getProperty(prop, Config.PROP_MSG_EVENT_LOOPS, Integer.class);
+        Integer msgMaxConnections = Config.getProperty(prop, Config.PROP_MSG_MAX_CONNECTIONS, Integer.class);
+        Integer msgPoolMaxIdleMs = Config.getProperty(prop, Config.PROP_MSG_POOL_MAX_IDLE_MS, Integer.class);
+        Integer msgServerIdleMs = Config.getProperty(prop, Config.PROP_MSG_SERVER_IDLE_MS, Integer.class);
+        Integer msgFullSyncRounds = Config.getProperty(prop, Config.PROP_MSG_FULL_SYNC_ROUNDS, Integer.class);
+        Set<Feature> msgFeatures = Feature.parse(Config.getProperty(prop, Config.PROP_MSG_FEATURES, String.class));
+        Integer msgPushLingerMs = Config.getProperty(prop, Config.PROP_MSG_PUSH_LINGER_MS, Integer.class);
+        Integer msgRoundMs = Config.getProperty(prop, Config.PROP_MSG_ROUND_MS, Integer.class);
+        Integer msgGossipFanout = Config.getProperty(prop, Config.PROP_MSG_GOSSIP_FANOUT, Integer.class);
+        ExecutionMode apiServerMode = ExecutionMode
+                .fromString(Config.getProperty(prop, Config.PROP_API_SERVER_MODE, String.class));
+        Integer apiMaxConnections = Config.getProperty(prop, Config.PROP_API_MAX_CONNECTIONS, Integer.class);
+        Integer apiKeepAliveMs = Config.getProperty(prop, Config.PROP_API_KEEP_ALIVE_MS, Integer.class);
 
         PeerManager peerManager = new PeerManager(peerTimeoutMs);
 
-        MessagesManager messagesManager = new MessagesManager(historyLimit);
+        // restore history from the message log, so restarted peer does not have to pull it from other peers
+        MessageLog messageLog = historyDir == null || historyDir.isBlank() ? null
+                : new MessageLog(historyDir, historySegmentBytes, historyLimit);
+        // node derived from the peer id would collide with a few dozen peers already
+        if (idGeneratorType == IdGeneratorType.SNOWFLAKE && (idNode == null || idNode < 0)) {
+            throw new IllegalArgumentException(String.format("Property %s must be configured unique within the "
+                    + "network for %s message ids", Config.PROP_MESSAGE_ID_NODE, idGeneratorType.value()));
+        }
+        IdGenerator idGenerator = idGeneratorType.create(idNode == null ? -1 : idNode);
+        MessagesManager messagesManager = new MessagesManager(historyLimit, historyStore, messageLog, idGenerator);
 
-        DiscoveryClient discoverySender = new DiscoveryClient(defaultPacketBufferLength, broadcastAddress,
-                broadcastPort, broadcastTimeoutMs, peerId, peerManager);
+        // multicast requests are sent to the group instead of the sub-net
+        String discoveryAddress = discoveryMode == DiscoveryMode.MULTICAST ? multicastGroup : broadcastAddress;
+        DiscoveryClient discoverySender = new DiscoveryClient(defaultPacketBufferLength, discoveryAddress,
+                broadcastPort, broadcastMinIntervalMs, broadcastMaxIntervalMs, peerId, peerManager, discoveryMode,
+                multicastTtl, multicastInterface);
         new Thread(discoverySender).start();
 
-        MessagingClient messageSender = new MessagingClient(broadcastTimeoutMs, peerId, messagesManager, peerManager);
+        MessagingClient messageSender = new MessagingClient(msgRoundMs, peerId, messagesManager, peerManager,
+                new MessagingClient.Options().poolMaxIdleMs(msgPoolMaxIdleMs).fullSyncRounds(msgFullSyncRounds)
+                        .features(msgFeatures).pushLingerMs(msgPushLingerMs).gossipFanout(msgGossipFanout));
         new Thread(messageSender).start();
 
-        DiscoveryServer discoveryServer = new DiscoveryServer(defaultPacketBufferLength, msgPort, peerId);
+        DiscoveryServer discoveryServer = new DiscoveryServer(defaultPacketBufferLength, msgPort, peerId,
+                discoveryMode, multicastGroup, multicastInterface);
         new Thread(discoveryServer).start();
 
-        MessagingServer messageServer = new MessagingServer(msgPort, messagesManager);
+        // server must not close pooled connection the peer still expects to reuse
+        if (msgServerIdleMs > 0 && msgServerIdleMs < msgPoolMaxIdleMs) {
+            msgServerIdleMs = msgPoolMaxIdleMs;
+        }
+        MessagingServer messageServer = new MessagingServer(msgPort, messagesManager, peerManager,
+                new MessagingServer.Options().mode(msgServerMode).eventLoops(msgEventLoops)
+                        .maxConnections(msgMaxConnections).idleTimeoutMs(msgServerIdleMs).features(msgFeatures));
         new Thread(messageServer).start();
 
-        ApiServer apiServer = new ApiServer(apiPort, peerId, messagesManager);
+        ApiServer apiServer = new ApiServer(apiPort, peerId, messagesManager, apiServerMode,
+                apiMaxConnections, apiKeepAliveMs);
         new Thread(apiServer).start();
 
         // gracefully stop servers and senders when JVM shutdown requested
@@ -106,6 +174,9 @@ public class App {
             discoveryServer.stop();
             messageServer.stop();
             apiServer.stop();
+            if (messageLog != null) {
+                messageLog.close();
+            }
         }));
     }
 }
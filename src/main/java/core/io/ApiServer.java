@@ -1,6 +1,10 @@
 package core.io;
 
+import core.manager.MessageListener;
 import core.manager.MessagesManager;
+import core.manager.MessagesPage;
+import core.manager.SerializedHistory;
+import core.model.Message;
 import core.model.Response;
 import core.model.Status;
 import core.util.Config;
@@ -9,21 +13,36 @@ import org.apache.commons.text.StringEscapeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * API server to process requests from HTTP client. Listening port {@link ApiServer#port}.
+ * API server to process requests from HTTP client. Listening port {@link ApiServer#port}. Keeps HTTP/1.1 connections
+ * open for the following (also pipelined) requests until they are idle for {@link ApiServer#keepAliveMs}. New messages
+ * are streamed to the clients of the /events endpoint as server-sent events.
  */
 public class ApiServer implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(ApiServer.class);
@@ -33,8 +52,13 @@ public class ApiServer implements Runnable {
     private final int port;
     private final String peerId;
     private final MessagesManager msgMgr;
+    private final ExecutionMode mode;
+    private final int maxConnections;
+    private final int keepAliveMs;
+    // history version restarts with the process, so entity tags of different runs must not match
+    private final String etagPrefix = Long.toHexString(ThreadLocalRandom.current().nextLong());
 
-    private boolean stop;
+    private volatile boolean stop;
 
     /**
      * @param port
@@ -45,20 +69,69 @@ public class ApiServer implements Runnable {
      *            messaging manager {@see MessagesManager}
      */
     public ApiServer(int port, String peerId, MessagesManager msgMgr) {
+        this(port, peerId, msgMgr, ExecutionMode.THREAD, 0);
+    }
+
+    /**
+     * @param port
+     *            API port
+     * @param peerId
+     *            peer Id
+     * @param msgMgr
+     *            messaging manager {@see MessagesManager}
+     * @param mode
+     *            connection processing mode, {@link ExecutionMode#THREAD} or {@link ExecutionMode#VIRTUAL}
+     * @param maxConnections
+     *            concurrently processed requests limit, 0 for no limit
+     */
+    public ApiServer(int port, String peerId, MessagesManager msgMgr, ExecutionMode mode, int maxConnections) {
+        this(port, peerId, msgMgr, mode, maxConnections, 0);
+    }
+
+    /**
+     * @param port
+     *            API port
+     * @param peerId
+     *            peer Id
+     * @param msgMgr
+     *            messaging manager {@see MessagesManager}
+     * @param mode
+     *            connection processing mode, {@link ExecutionMode#THREAD} or {@link ExecutionMode#VIRTUAL}
+     * @param maxConnections
+     *            concurrently processed connections limit, 0 for no limit
+     * @param keepAliveMs
+     *            how long persistent connection may stay idle between requests, 0 to close connection after every
+     *            response
+     */
+    public ApiServer(int port, String peerId, MessagesManager msgMgr, ExecutionMode mode, int maxConnections,
+            int keepAliveMs) {
         this.port = port;
         this.peerId = peerId;
         this.msgMgr = msgMgr;
+        if (mode == ExecutionMode.NIO) {
+            log.warn("Execution mode {} is not supported by API server, using {}", mode.value(),
+                    ExecutionMode.THREAD.value());
+            mode = ExecutionMode.THREAD;
+        }
+        this.mode = mode;
+        this.maxConnections = maxConnections;
+        this.keepAliveMs = keepAliveMs;
     }
 
     @Override
     public void run() {
+        ConnectionDispatcher dispatcher = new ConnectionDispatcher(mode, maxConnections);
         // open socket only once and then reuse it
         try (ServerSocket server = new ServerSocket(port)) {
             server.setReuseAddress(true);
             while (!stop) {
-                // start new thread for each incoming request to process multiple requests in parallel
-                // TODO: implement thread limits to avoid system DDOS
-                new Thread(new ApiRunnable(server.accept(), peerId, msgMgr)).start();
+                // process each incoming request in a separate thread to process multiple requests in parallel,
+                // but reject requests above the limit to avoid system DDOS
+                ApiRunnable runnable = new ApiRunnable(server.accept(), peerId, msgMgr);
+                if (!dispatcher.dispatch(runnable)) {
+                    log.warn("Rejecting request, {} requests are already in progress", maxConnections);
+                    runnable.reject();
+                }
             }
             if (stop) {
                 log.info("Execution stopped");
@@ -67,6 +140,8 @@ public class ApiServer implements Runnable {
             String msg = String.format("Failed to open socket on port %s", port);
             log.error(msg, e);
             throw new RuntimeException(msg, e);
+        } finally {
+            dispatcher.shutdown();
         }
     }
 
@@ -86,21 +161,52 @@ public class ApiServer implements Runnable {
         private static final String LAST_MODIFIED_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
 
         private static final String MESSAGES_END_POINT = "/messages";
+        private static final String EVENTS_END_POINT = "/events";
         private static final String SEND_MESSAGE_END_POINT = "/send?message=";
 
         private static final String MEDIA_APPLICATION_JSON = "application/json; charset=utf-8";
         private static final String MEDIA_TEXT_PLAIN = "text/plain; charset=utf-8";
+        private static final String MEDIA_EVENT_STREAM = "text/event-stream; charset=utf-8";
 
         private static final String STATUS_OK = "200 OK";
+        private static final String STATUS_NOT_MODIFIED = "304 Not Modified";
         private static final String STATUS_BAD_REQUEST = "400 Bad Request";
         private static final String STATUS_NOT_FOUND = "404 Not Found";
+        private static final String STATUS_SERVICE_UNAVAILABLE = "503 Service Unavailable";
 
         private static final String METHOD_GET = "GET";
 
+        private static final String PARAM_SINCE = "since";
+        private static final String PARAM_BEFORE = "before";
+        private static final String PARAM_LIMIT = "limit";
+        private static final String PARAM_WAIT = "wait";
+
+        // serialized history cache key
+        private static final String MESSAGES_FORMAT = "api-json";
+        // clients may store history, but have to revalidate it with every request
+        private static final String CACHE_CONTROL_NO_CACHE = "Cache-Control: no-cache";
+
+        private static final String HTTP_1_0 = "HTTP/1.0";
+        private static final String CONNECTION_KEEP_ALIVE = "keep-alive";
+        private static final String CONNECTION_CLOSE = "close";
+
+        private static final int INPUT_BUFFER_SIZE = 8192;
+        private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+        // long-polling request waits for new messages at most this long
+        private static final long MAX_WAIT_MS = 60000;
+        // comment sent to idle event stream, so closed connections are detected and proxies keep it open
+        private static final long EVENTS_HEARTBEAT_MS = 15000;
+        // event stream is closed if client cannot keep up, it resumes with Last-Event-ID after reconnect
+        private static final int EVENTS_QUEUE_SIZE = 1024;
+        private static final byte[] EVENTS_HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
         private final Socket socket;
         private final String peerId;
         private final MessagesManager msgMgr;
 
+        private boolean keepAlive;
+
         /**
          * @param socket
          *            connected socket
@@ -117,60 +223,403 @@ public class ApiServer implements Runnable {
 
         @Override
         public void run() {
-            try (PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));) {
-                String address = socket.getInetAddress().getHostAddress();
-                int port = socket.getPort();
-                String requestString = in.readLine();
-                // just ignore rest of the stream as we don't care
-                while (!in.readLine().equals("")) {
+            String address = socket.getInetAddress().getHostAddress();
+            int port = socket.getPort();
+            try (InputStream in = new BufferedInputStream(socket.getInputStream(), INPUT_BUFFER_SIZE);
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE)) {
+                if (keepAliveMs > 0) {
+                    // idle persistent connection is closed once no request arrives within the timeout
+                    socket.setSoTimeout(keepAliveMs);
+                }
+                do {
+                    HttpRequest request;
+                    try {
+                        request = HttpRequest.read(in);
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Invalid HTTP request from {}:{}, {}", address, port, e.getMessage());
+                        keepAlive = false;
+                        sendResponse(out, STATUS_BAD_REQUEST, MEDIA_TEXT_PLAIN, new Date(), e.getMessage());
+                        break;
+                    }
+                    if (request == null) {
+                        // connection closed by the client
+                        break;
+                    }
+                    process(out, request, address, port);
+                    // responses to the pipelined requests already received are flushed together
+                    if (!keepAlive || in.available() == 0) {
+                        out.flush();
+                    }
+                } while (keepAlive);
+            } catch (SocketTimeoutException e) {
+                log.debug("Closing idle connection from {}:{}", address, port);
+            } catch (IOException e) {
+                log.error("Failed to process request", e);
+            } finally {
+                try {
+                    socket.close();
+                } catch (Exception e) {
+                    // do nothing
+                }
+            }
+        }
+
+        /**
+         * Route single request and write the response, flushing is left to the caller.
+         *
+         * @param out
+         *            output stream
+         * @param request
+         *            received request
+         * @param address
+         *            client IP address
+         * @param port
+         *            client port
+         *
+         * @throws IOException
+         *             if response cannot be sent
+         */
+        private void process(OutputStream out, HttpRequest request, String address, int port) throws IOException {
+            String requestString = request.requestLine();
+            log.debug("Received request\n{}\nfrom {}:{}", requestString, address, port);
+            Matcher m = HTTP_REQUEST_LINE.matcher(requestString);
+            // validate it is HTTP request, not a garbage sent to the port
+            if (!m.matches()) {
+                String msg = "Invalid HTTP request " + requestString;
+                log.warn(msg);
+                keepAlive = false;
+                sendResponse(out, STATUS_BAD_REQUEST, MEDIA_TEXT_PLAIN, new Date(), msg);
+                return;
+            }
+            keepAlive = isKeepAlive(m.group(3).trim(), request.header("Connection"));
+            // validate HTTP GET request received
+            if (!METHOD_GET.equals(m.group(1))) {
+                String method = m.group(1);
+                String msg = "Invalid HTTP method " + method;
+                log.warn("{} in the request {}", msg, requestString);
+                sendResponse(out, STATUS_BAD_REQUEST, MEDIA_TEXT_PLAIN, new Date(), msg);
+                return;
+            }
+            String queryString = m.group(2);
+            // validate called /messages with page parameters
+            if (queryString.startsWith(MESSAGES_END_POINT + "?")) {
+                Long sinceId;
+                Long beforeId;
+                int limit;
+                long waitMs;
+                try {
+                    Map<String, String> params = parseQuery(queryString.substring(MESSAGES_END_POINT.length() + 1));
+                    sinceId = longParam(params, PARAM_SINCE);
+                    beforeId = longParam(params, PARAM_BEFORE);
+                    Long limitParam = longParam(params, PARAM_LIMIT);
+                    if (limitParam != null && limitParam < 1) {
+                        throw new IllegalArgumentException("Parameter limit must be positive");
+                    }
+                    limit = limitParam != null ? (int) Math.min(limitParam, Integer.MAX_VALUE) : Integer.MAX_VALUE;
+                    Long waitParam = longParam(params, PARAM_WAIT);
+                    if (waitParam != null && waitParam < 0) {
+                        throw new IllegalArgumentException("Parameter wait must not be negative");
+                    }
+                    waitMs = waitParam != null ? Math.min(waitParam, MAX_WAIT_MS) : 0;
+                } catch (IllegalArgumentException e) {
+                    sendResponse(out, STATUS_BAD_REQUEST, MEDIA_TEXT_PLAIN, new Date(), e.getMessage());
+                    return;
                 }
-                log.debug("Received request\n{}\nfrom {}:{}", requestString, address, port);
-                Matcher m = HTTP_REQUEST_LINE.matcher(requestString);
-                String response;
-                // validate it is HTTP request, not a garbage sent to the port
-                if (!m.matches()) {
-                    String msg = "Invalid HTTP request " + requestString;
-                    log.warn(msg);
-                    response = generateResponse(STATUS_BAD_REQUEST, MEDIA_TEXT_PLAIN, new Date(), msg);
-                    // validate HTTP GET request received
-                } else if (!METHOD_GET.equals(m.group(1))) {
-                    String method = m.group(1);
-                    String msg = "Invalid HTTP method " + method;
-                    log.warn("{} in the request {}", msg, requestString);
-                    response = generateResponse(STATUS_BAD_REQUEST, MEDIA_TEXT_PLAIN, new Date(), msg);
+                MessagesPage page = getMessagesPage(sinceId, beforeId, limit, waitMs);
+                byte[] body = JsonUtil.toJsonBytes(
+                        Response.builder(null).messages(page.messages()).nextCursor(page.nextCursor()).build());
+                sendResponse(out, STATUS_OK, MEDIA_APPLICATION_JSON, null, body, CACHE_CONTROL_NO_CACHE);
+                // validate called /events
+            } else if (queryString.equals(EVENTS_END_POINT)) {
+                streamEvents(out, request);
+                // validate called /messages
+            } else if (queryString.startsWith(MESSAGES_END_POINT)) {
+                // unchanged history is not serialized again, cached bytes are sent with Content-Length, streaming the
+                // body would serialize the history on every request
+                SerializedHistory history = msgMgr.getSerializedMessages(MESSAGES_FORMAT,
+                        messages -> JsonUtil.toJsonBytes(new Response(null, messages, null, null)));
+                String etag = "\"" + etagPrefix + "-" + history.version() + "\"";
+                // HTTP dates have a second precision, so the current second may still change the history
+                Date lastModified = history.modifiedMs() / 1000 < System.currentTimeMillis() / 1000
+                        ? new Date(history.modifiedMs())
+                        : null;
+                if (isNotModified(request, etag, lastModified)) {
+                    writeHeaders(out, STATUS_NOT_MODIFIED, null, lastModified, "ETag: " + etag,
+                            CACHE_CONTROL_NO_CACHE);
                 } else {
-                    String queryString = m.group(2);
-                    // validate called /messages
-                    if (queryString.startsWith(MESSAGES_END_POINT)) {
-                        String body = JsonUtil.toJson(new Response(null, msgMgr.getMessages(), null, null));
-                        response = generateResponse(STATUS_OK, MEDIA_APPLICATION_JSON, new Date(), body);
-                        // validate called /send message
-                    } else if (queryString.startsWith(SEND_MESSAGE_END_POINT)) {
-                        String message = queryString.substring(SEND_MESSAGE_END_POINT.length());
-                        // validate message provided in the request
-                        if (message.length() < 1) {
-                            String body = "Message is empty";
-                            response = generateResponse(STATUS_BAD_REQUEST, MEDIA_TEXT_PLAIN, new Date(), body);
-                        } else {
-                            // decode URL encoded message (see https://en.wikipedia.org/wiki/Percent-encoding)
-                            String decodedMessage = URLDecoder.decode(message, StandardCharsets.UTF_8.name());
-                            // escape HTML entities (to prevent <script></script> and other tags)
-                            String escapedMessage = StringEscapeUtils.escapeHtml4(decodedMessage);
-                            msgMgr.addNewMessage(peerId, escapedMessage);
-                            String body = JsonUtil.toJson(new Response(Status.OK, null, null, null));
-                            response = generateResponse(STATUS_OK, MEDIA_APPLICATION_JSON, new Date(), body);
-                        }
-                        // send not found for any other requests
-                    } else {
-                        String body = "The requested resource not found " + queryString;
-                        response = generateResponse(STATUS_NOT_FOUND, MEDIA_TEXT_PLAIN, new Date(), body);
+                    sendResponse(out, STATUS_OK, MEDIA_APPLICATION_JSON, lastModified, history.bytes(),
+                            "ETag: " + etag, CACHE_CONTROL_NO_CACHE);
+                }
+                // validate called /send message
+            } else if (queryString.startsWith(SEND_MESSAGE_END_POINT)) {
+                String message = queryString.substring(SEND_MESSAGE_END_POINT.length());
+                // validate message provided in the request
+                if (message.length() < 1) {
+                    String body = "Message is empty";
+                    sendResponse(out, STATUS_BAD_REQUEST, MEDIA_TEXT_PLAIN, new Date(), body);
+                } else {
+                    // decode URL encoded message (see https://en.wikipedia.org/wiki/Percent-encoding)
+                    String decodedMessage = URLDecoder.decode(message, StandardCharsets.UTF_8.name());
+                    // escape HTML entities (to prevent <script></script> and other tags)
+                    String escapedMessage = StringEscapeUtils.escapeHtml4(decodedMessage);
+                    msgMgr.addNewMessage(peerId, escapedMessage);
+                    String body = JsonUtil.toJson(new Response(Status.OK, null, null, null));
+                    sendResponse(out, STATUS_OK, MEDIA_APPLICATION_JSON, new Date(), body);
+                }
+                // send not found for any other requests
+            } else {
+                String body = "The requested resource not found " + queryString;
+                sendResponse(out, STATUS_NOT_FOUND, MEDIA_TEXT_PLAIN, new Date(), body);
+            }
+        }
+
+        /**
+         * Get messages page. Empty forward page is returned only after no message arrived within the wait time
+         * (long-polling).
+         *
+         * @param sinceId
+         *            exclusive lower bound, null for the newest messages
+         * @param beforeId
+         *            exclusive upper bound, null if unbounded
+         * @param limit
+         *            maximal count of the messages
+         * @param waitMs
+         *            maximal wait time in milliseconds for new messages after sinceId, 0 not to wait
+         *
+         * @return messages page
+         */
+        private MessagesPage getMessagesPage(Long sinceId, Long beforeId, int limit, long waitMs) {
+            long deadline = System.currentTimeMillis() + waitMs;
+            while (true) {
+                // version is read before the page, so message stored in between ends the wait immediately
+                long version = msgMgr.getVersion();
+                MessagesPage page = msgMgr.getMessages(sinceId, beforeId, limit);
+                long remaining = deadline - System.currentTimeMillis();
+                if (!page.messages().isEmpty() || sinceId == null || remaining <= 0 || stop) {
+                    return page;
+                }
+                try {
+                    if (!msgMgr.awaitChange(version, remaining)) {
+                        return page;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return page;
+                }
+            }
+        }
+
+        /**
+         * Stream stored messages as server-sent events until the client disconnects or the server stops. Event id is
+         * the message id, client reconnecting with Last-Event-ID header receives the newer messages first.
+         *
+         * @param out
+         *            output stream
+         * @param request
+         *            received request
+         *
+         * @throws IOException
+         *             if event cannot be sent
+         */
+        private void streamEvents(OutputStream out, HttpRequest request) throws IOException {
+            // stream has no length, it ends by closing the connection
+            keepAlive = false;
+            BlockingQueue<Map.Entry<Long, Message>> events = new ArrayBlockingQueue<>(EVENTS_QUEUE_SIZE);
+            AtomicBoolean overflow = new AtomicBoolean();
+            MessageListener listener = (id, message) -> {
+                if (!events.offer(Map.entry(id, message))) {
+                    overflow.set(true);
+                }
+            };
+            // listen before reading the history, so no message is lost in between
+            msgMgr.addListener(listener);
+            try {
+                writeHeaders(out, STATUS_OK, MEDIA_EVENT_STREAM, null, CACHE_CONTROL_NO_CACHE);
+                Map<Long, Message> replayed = Map.of();
+                Long lastEventId = lastEventId(request);
+                if (lastEventId != null) {
+                    replayed = msgMgr.getMessages(lastEventId);
+                    for (Map.Entry<Long, Message> entry : replayed.entrySet()) {
+                        writeEvent(out, entry.getKey(), entry.getValue());
+                    }
+                }
+                out.flush();
+                while (!stop) {
+                    Map.Entry<Long, Message> event = events.poll(EVENTS_HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+                    if (overflow.get()) {
+                        log.warn("Closing event stream, client does not keep up with the messages");
+                        break;
+                    }
+                    if (event == null) {
+                        out.write(EVENTS_HEARTBEAT);
+                    } else if (!event.getValue().equals(replayed.get(event.getKey()))) {
+                        writeEvent(out, event.getKey(), event.getValue());
+                    }
+                    if (events.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                msgMgr.removeListener(listener);
+            }
+        }
+
+        /**
+         * @param request
+         *            received request
+         *
+         * @return Last-Event-ID header value, null if not sent or invalid
+         */
+        private Long lastEventId(HttpRequest request) {
+            String value = request.header("Last-Event-ID");
+            if (value == null) {
+                return null;
+            }
+            try {
+                return Long.valueOf(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid Last-Event-ID {}", value);
+                return null;
+            }
+        }
+
+        private void writeEvent(OutputStream out, long id, Message message) throws IOException {
+            // JSON escapes line breaks, so the data fits on a single line
+            String event = "id: " + id + "\nevent: message\ndata: " + JsonUtil.toJson(message) + "\n\n";
+            out.write(event.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Parse URL encoded query parameters.
+         *
+         * @param query
+         *            query string without leading question mark
+         *
+         * @return parameters, the last value wins if parameter is repeated
+         */
+        private Map<String, String> parseQuery(String query) {
+            Map<String, String> params = new HashMap<>();
+            for (String param : query.split("&")) {
+                if (param.isEmpty()) {
+                    continue;
+                }
+                int separator = param.indexOf('=');
+                String name = separator < 0 ? param : param.substring(0, separator);
+                String value = separator < 0 ? "" : param.substring(separator + 1);
+                params.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                        URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+            return params;
+        }
+
+        /**
+         * @param params
+         *            query parameters
+         * @param name
+         *            parameter name
+         *
+         * @return parameter value, null if not defined
+         *
+         * @throws IllegalArgumentException
+         *             if parameter is not a number
+         */
+        private Long longParam(Map<String, String> params, String name) {
+            String value = params.get(name);
+            if (value == null || value.isEmpty()) {
+                return null;
+            }
+            try {
+                return Long.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Parameter %s must be a number", name));
+            }
+        }
+
+        /**
+         * Evaluate conditional request. If-Modified-Since is ignored if If-None-Match is sent (RFC 7232, section 6).
+         *
+         * @param request
+         *            received request
+         * @param etag
+         *            current entity tag
+         * @param lastModified
+         *            current last modification date, null if unknown
+         *
+         * @return true if client has the current representation already
+         */
+        private boolean isNotModified(HttpRequest request, String etag, Date lastModified) {
+            String ifNoneMatch = request.header("If-None-Match");
+            if (ifNoneMatch != null) {
+                for (String tag : ifNoneMatch.split(",")) {
+                    tag = tag.trim();
+                    // weak comparison
+                    if (tag.startsWith("W/")) {
+                        tag = tag.substring(2);
                     }
+                    if (tag.equals("*") || tag.equals(etag)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            String ifModifiedSince = request.header("If-Modified-Since");
+            if (ifModifiedSince == null || lastModified == null) {
+                return false;
+            }
+            try {
+                // HTTP dates have a second precision
+                return lastModified.getTime() / 1000 <= dateFormat().parse(ifModifiedSince).getTime() / 1000;
+            } catch (ParseException e) {
+                log.debug("Ignoring invalid If-Modified-Since {}", ifModifiedSince);
+                return false;
+            }
+        }
+
+        /**
+         * HTTP/1.1 connections are persistent unless client asks to close them, HTTP/1.0 connections only if client
+         * asks to keep them.
+         *
+         * @param version
+         *            HTTP version of the request
+         * @param connection
+         *            Connection header of the request
+         *
+         * @return true if connection should be kept open after the response
+         */
+        private boolean isKeepAlive(String version, String connection) {
+            if (keepAliveMs <= 0 || stop) {
+                return false;
+            }
+            if (hasToken(connection, CONNECTION_CLOSE)) {
+                return false;
+            }
+            return !HTTP_1_0.equals(version) || hasToken(connection, CONNECTION_KEEP_ALIVE);
+        }
+
+        private boolean hasToken(String header, String token) {
+            if (header == null) {
+                return false;
+            }
+            for (String value : header.split(",")) {
+                if (value.trim().equalsIgnoreCase(token)) {
+                    return true;
                 }
+            }
+            return false;
+        }
 
-                out.println(response);
+        /**
+         * Respond with {@value #STATUS_SERVICE_UNAVAILABLE} without reading the request and close connection.
+         */
+        public void reject() {
+            keepAlive = false;
+            try (OutputStream out = new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE)) {
+                sendResponse(out, STATUS_SERVICE_UNAVAILABLE, MEDIA_TEXT_PLAIN, new Date(),
+                        "Too many requests in progress, please retry later");
             } catch (IOException e) {
-                log.error("Failed to process request", e);
+                log.debug("Failed to reject request", e);
             } finally {
                 try {
                     socket.close();
@@ -181,8 +630,10 @@ public class ApiServer implements Runnable {
         }
 
         /**
-         * Generate HTTP message response
+         * Send HTTP response with the body of known length.
          *
+         * @param out
+         *            output stream
          * @param status
          *            HTTP status
          * @param contentType
@@ -192,17 +643,83 @@ public class ApiServer implements Runnable {
          * @param responseBody
          *            response body
          *
-         * @return HTTP message
+         * @throws IOException
+         *             if response cannot be sent
+         */
+        private void sendResponse(OutputStream out, String status, String contentType, Date date,
+                String responseBody) throws IOException {
+            sendResponse(out, status, contentType, date, responseBody.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Send HTTP response with the encoded body.
+         *
+         * @param out
+         *            output stream
+         * @param status
+         *            HTTP status
+         * @param contentType
+         *            HTTP content type
+         * @param date
+         *            Last modification date
+         * @param body
+         *            response body
+         * @param headers
+         *            other response headers
+         *
+         * @throws IOException
+         *             if response cannot be sent
+         */
+        private void sendResponse(OutputStream out, String status, String contentType, Date date, byte[] body,
+                String... headers) throws IOException {
+            String[] allHeaders = new String[headers.length + 1];
+            allHeaders[0] = "Content-Length: " + body.length;
+            System.arraycopy(headers, 0, allHeaders, 1, headers.length);
+            writeHeaders(out, status, contentType, date, allHeaders);
+            out.write(body);
+        }
+
+        /**
+         * Write HTTP status line and headers.
+         *
+         * @param out
+         *            output stream
+         * @param status
+         *            HTTP status
+         * @param contentType
+         *            HTTP content type, null if response has no body
+         * @param date
+         *            Last modification date, null if unknown
+         * @param headers
+         *            other response headers
+         *
+         * @throws IOException
+         *             if headers cannot be sent
+         */
+        private void writeHeaders(OutputStream out, String status, String contentType, Date date,
+                String... headers) throws IOException {
+            StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n");
+            if (contentType != null) {
+                head.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            if (date != null) {
+                head.append("Last-Modified: ").append(dateFormat().format(date)).append("\r\n");
+            }
+            for (String header : headers) {
+                head.append(header).append("\r\n");
+            }
+            head.append("Connection: ").append(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE).append("\r\n");
+            head.append("\r\n");
+            out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @return HTTP date format (RFC 7231, section 7.1.1.1), not thread safe
          */
-        private String generateResponse(String status, String contentType, Date date, String responseBody) {
-            return """
-                    HTTP/1.1 %s
-                    Content-Type: %s
-                    Last-Modified: %s
-
-                    %s
-                    """.formatted(status, contentType, new SimpleDateFormat(LAST_MODIFIED_DATE_FORMAT).format(date),
-                    responseBody);
+        private DateFormat dateFormat() {
+            DateFormat format = new SimpleDateFormat(LAST_MODIFIED_DATE_FORMAT, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
         }
     }
 }
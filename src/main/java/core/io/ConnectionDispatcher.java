@@ -0,0 +1,92 @@
+package core.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs accepted connection handlers in {@link ExecutionMode#THREAD} or {@link ExecutionMode#VIRTUAL} mode and limits
+ * amount of concurrently processed connections. Connections above the limit are rejected immediately instead of
+ * queued, so burst of connections cannot exhaust the host.
+ */
+class ConnectionDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionDispatcher.class);
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    /**
+     * @param mode
+     *            execution mode
+     * @param maxConnections
+     *            concurrently processed connections limit, 0 or negative for no limit
+     */
+    ConnectionDispatcher(ExecutionMode mode, int maxConnections) {
+        this.executor = mode == ExecutionMode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        this.permits = maxConnections > 0 ? new Semaphore(maxConnections) : null;
+    }
+
+    /**
+     * Run connection handler if concurrency limit allows it.
+     *
+     * @param handler
+     *            connection handler
+     *
+     * @return false if handler was rejected because of the concurrency limit
+     */
+    boolean dispatch(Runnable handler) {
+        if (permits != null && !permits.tryAcquire()) {
+            return false;
+        }
+        Runnable task = () -> {
+            try {
+                handler.run();
+            } finally {
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+        };
+        try {
+            if (executor != null) {
+                executor.execute(task);
+            } else {
+                new Thread(task).start();
+            }
+        } catch (RuntimeException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Stop accepting new handlers, already running handlers are not interrupted.
+     */
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Virtual threads are available since Java 21 only, so look the factory up at runtime to keep Java 17 compatible
+     * build.
+     *
+     * @return virtual thread per task executor or cached platform thread pool
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not supported by Java {}, using pooled platform threads",
+                    Runtime.version().feature());
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
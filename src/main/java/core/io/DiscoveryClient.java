@@ -13,24 +13,33 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.NetworkInterface;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 
 /**
- * Discovering message peers by sending UDP broadcast {@link Command#HELLO} command with {@link DiscoveryClient#timeout}
- * interval. Stores received peer Id's for the future message exchange.
+ * Discovering message peers by sending UDP broadcast or multicast {@link Command#HELLO} command, see
+ * {@link DiscoveryMode}. Stores received peer Id's for the future message exchange. Probes are sent frequently at
+ * startup and after the known peers change, the interval doubles while the peers are stable up to
+ * {@link DiscoveryClient#maxIntervalMs}. Expired peer triggers an immediate probe. Peers answering message exchanges
+ * are kept alive by {@link MessagingClient}, so the stable interval may exceed the peer expiration timeout.
  */
 public class DiscoveryClient implements Runnable, Config {
     private static final Logger log = LoggerFactory.getLogger(DiscoveryClient.class);
 
     private final InetAddress ipAddress;
     private final int port;
-    private final int timeout;
+    private final int minIntervalMs;
+    private final int maxIntervalMs;
+    private final DiscoveryMode mode;
+    private final int ttl;
+    private final NetworkInterface networkInterface;
 
     private final String peerId;
     private final PeerManager peerMgr;
 
-    private boolean stop;
+    private volatile boolean stop;
+    private volatile boolean peerExpired;
 
     private final String commandString;
 
@@ -44,7 +53,7 @@ public class DiscoveryClient implements Runnable, Config {
      * @param port
      *            broadcast port
      * @param timeout
-     *            socket timeout
+     *            constant interval between the broadcast requests
      * @param peerId
      *            peer Id
      * @param peerMgr
@@ -52,6 +61,58 @@ public class DiscoveryClient implements Runnable, Config {
      */
     public DiscoveryClient(int defaultPacketBufferLength, String ipAddress, int port, int timeout, String peerId,
             PeerManager peerMgr) {
+        this(defaultPacketBufferLength, ipAddress, port, timeout, timeout, peerId, peerMgr);
+    }
+
+    /**
+     * @param defaultPacketBufferLength
+     *            default packet buffer length
+     * @param ipAddress
+     *            broadcast sub-net
+     * @param port
+     *            broadcast port
+     * @param minIntervalMs
+     *            interval between the broadcast requests at startup and after the known peers changed
+     * @param maxIntervalMs
+     *            interval between the broadcast requests while the known peers are stable, may exceed the peer
+     *            expiration timeout if peers are kept alive by the message exchange
+     * @param peerId
+     *            peer Id
+     * @param peerMgr
+     *            Peer Manager {@see PeerManager}
+     */
+    public DiscoveryClient(int defaultPacketBufferLength, String ipAddress, int port, int minIntervalMs,
+            int maxIntervalMs, String peerId, PeerManager peerMgr) {
+        this(defaultPacketBufferLength, ipAddress, port, minIntervalMs, maxIntervalMs, peerId, peerMgr,
+                DiscoveryMode.BROADCAST, 1, null);
+    }
+
+    /**
+     * @param defaultPacketBufferLength
+     *            default packet buffer length
+     * @param ipAddress
+     *            broadcast sub-net or multicast group
+     * @param port
+     *            discovery port
+     * @param minIntervalMs
+     *            interval between the requests at startup and after the known peers changed
+     * @param maxIntervalMs
+     *            interval between the requests while the known peers are stable, may exceed the peer expiration
+     *            timeout if peers are kept alive by the message exchange
+     * @param peerId
+     *            peer Id
+     * @param peerMgr
+     *            Peer Manager {@see PeerManager}
+     * @param mode
+     *            discovery transport
+     * @param ttl
+     *            multicast time-to-live (router hops) in {@link DiscoveryMode#MULTICAST} mode
+     * @param networkInterface
+     *            interface multicast requests are sent from, null for the system default
+     */
+    public DiscoveryClient(int defaultPacketBufferLength, String ipAddress, int port, int minIntervalMs,
+            int maxIntervalMs, String peerId, PeerManager peerMgr, DiscoveryMode mode, int ttl,
+            NetworkInterface networkInterface) {
         try {
             this.ipAddress = InetAddress.getByName(ipAddress);
         } catch (UnknownHostException e) {
@@ -61,10 +122,15 @@ public class DiscoveryClient implements Runnable, Config {
         }
         this.defaultPacketBufferLength = defaultPacketBufferLength;
         this.port = port;
-        this.timeout = timeout;
+        this.minIntervalMs = Math.max(1, Math.min(minIntervalMs, maxIntervalMs));
+        this.maxIntervalMs = Math.max(1, maxIntervalMs);
         this.peerId = peerId;
         this.peerMgr = peerMgr;
+        this.mode = mode;
+        this.ttl = ttl;
+        this.networkInterface = networkInterface;
         this.commandString = JsonUtil.toJson(new Request(Command.HELLO, peerId, null, null));
+        peerMgr.addExpirationListener(peer -> peerExpired = true);
     }
 
     @Override
@@ -72,54 +138,33 @@ public class DiscoveryClient implements Runnable, Config {
         byte[] outBuf = commandString.getBytes();
 
         // open socket
-        try (DatagramSocket socket = new DatagramSocket()) {
-            // set broadcast
-            socket.setBroadcast(true);
-            socket.setSoTimeout(timeout);
+        try (DatagramSocket socket = mode.openClient(ttl, networkInterface)) {
+            int interval = minIntervalMs;
+            int knownPeers = -1;
             while (!stop) {
-                log.debug("Sending broadcard request {} to {}:{}", commandString, ipAddress.getHostAddress(), port);
+                log.debug("Sending {} request {} to {}:{}", mode.value(), commandString, ipAddress.getHostAddress(),
+                        port);
                 // send request
                 DatagramPacket request = new DatagramPacket(outBuf, outBuf.length, ipAddress, port);
                 socket.send(request);
-                long start = System.currentTimeMillis();
-                while (System.currentTimeMillis() - start < timeout) {
-                    try {
-                        log.debug("Waiting for the discovery responses");
-                        byte[] inBuf = new byte[defaultPacketBufferLength];
-                        DatagramPacket response = new DatagramPacket(inBuf, inBuf.length);
-                        socket.receive(response);
-
-                        // peer IP address
-                        String peerAddress = response.getAddress().getHostAddress();
-                        // peer port
-                        int peerPort = response.getPort();
-                        String responseString = new String(trim(response.getData()));
-                        log.debug("Received message {} from {}:{}", responseString, peerAddress, peerPort);
-
-                        Response responseObj = JsonUtil.fromJson(responseString, Response.class);
-                        String peerId = responseObj.peerId();
-                        if (peerId == null) {
-                            String errorMsg = responseObj.message();
-                            if (errorMsg != null) {
-                                log.warn("Received error: {} from {}:{}", errorMsg, peerAddress, peerPort);
-                            } else {
-                                log.warn("Unable to get peer id from: {} from {}:{}", responseString, peerAddress,
-                                        peerPort);
-                            }
-                            // ignore ourself
-                        } else if (!this.peerId.equals(peerId)) {
-                            log.info("Received peer {} from {}:{}", peerId, peerAddress, peerPort);
-                            peerMgr.addPeer(peerId, peerAddress, peerPort);
-                        } else {
-                            log.debug("Ignoring out peer {} from {}:{}", peerId, peerAddress, peerPort);
-                        }
-                    } catch (SocketTimeoutException e) {
-                        // do nothing
-                        log.debug("Got socket timeout exception, no responses received during timeout {}ms", timeout);
-                    } catch (Exception e) {
-                        log.debug("Got exception while waiting for the response", e);
-                    }
+                peerExpired = false;
+                long nextProbe = System.currentTimeMillis() + interval;
+                long now;
+                while (!stop && !peerExpired && (now = System.currentTimeMillis()) < nextProbe) {
+                    // wake up at least every minimal interval to notice expired peers
+                    socket.setSoTimeout((int) Math.max(1, Math.min(nextProbe - now, minIntervalMs)));
+                    receive(socket);
+                    // advances peer expiry even if no peer responds
+                    peerMgr.getPeers();
                 }
+                int peers = peerMgr.getPeers().size();
+                if (peerExpired || peers != knownPeers) {
+                    interval = minIntervalMs;
+                } else {
+                    interval = Math.min(interval * 2, maxIntervalMs);
+                }
+                knownPeers = peers;
+                log.debug("Next broadcast request in {}ms, {} known peers", interval, peers);
             }
             if (stop) {
                 log.info("Execution stopped");
@@ -132,6 +177,50 @@ public class DiscoveryClient implements Runnable, Config {
         }
     }
 
+    /**
+     * Wait for the single discovery response and store responding peer.
+     *
+     * @param socket
+     *            broadcast socket
+     */
+    private void receive(DatagramSocket socket) {
+        try {
+            log.debug("Waiting for the discovery responses");
+            byte[] inBuf = new byte[defaultPacketBufferLength];
+            DatagramPacket response = new DatagramPacket(inBuf, inBuf.length);
+            socket.receive(response);
+
+            // peer IP address
+            String peerAddress = response.getAddress().getHostAddress();
+            // peer port
+            int peerPort = response.getPort();
+            String responseString = new String(trim(response.getData()));
+            log.debug("Received message {} from {}:{}", responseString, peerAddress, peerPort);
+
+            Response responseObj = JsonUtil.fromJson(responseString, Response.class);
+            String peerId = responseObj.peerId();
+            if (peerId == null) {
+                String errorMsg = responseObj.message();
+                if (errorMsg != null) {
+                    log.warn("Received error: {} from {}:{}", errorMsg, peerAddress, peerPort);
+                } else {
+                    log.warn("Unable to get peer id from: {} from {}:{}", responseString, peerAddress, peerPort);
+                }
+                // ignore ourself
+            } else if (!this.peerId.equals(peerId)) {
+                log.info("Received peer {} from {}:{}", peerId, peerAddress, peerPort);
+                peerMgr.addPeer(peerId, peerAddress, peerPort);
+            } else {
+                log.debug("Ignoring out peer {} from {}:{}", peerId, peerAddress, peerPort);
+            }
+        } catch (SocketTimeoutException e) {
+            // do nothing
+            log.debug("Got socket timeout exception, no responses received during timeout");
+        } catch (Exception e) {
+            log.debug("Got exception while waiting for the response", e);
+        }
+    }
+
     /**
      * Stop discovery client execution.
      */
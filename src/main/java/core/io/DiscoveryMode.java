@@ -0,0 +1,148 @@
+package core.io;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+
+/**
+ * Peer discovery transport of {@link DiscoveryClient} and {@link DiscoveryServer}. Responses are always sent directly
+ * to the requesting peer.
+ */
+public enum DiscoveryMode {
+
+    /**
+     * Requests are broadcast to the sub-net, every host of the sub-net receives them.
+     */
+    BROADCAST("broadcast"),
+    /**
+     * Requests are sent to the multicast group, only hosts which joined the group receive them and they may cross
+     * routers up to the time-to-live hops.
+     */
+    MULTICAST("multicast");
+
+    private String value;
+
+    DiscoveryMode(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Resolve mode from the property value.
+     *
+     * @param value
+     *            mode string representation
+     *
+     * @return enum value, {@link DiscoveryMode#BROADCAST} if value is not defined
+     */
+    public static DiscoveryMode fromString(String value) {
+        if (value == null || value.isBlank()) {
+            return BROADCAST;
+        }
+        for (DiscoveryMode item : values()) {
+            if (item.value.equalsIgnoreCase(value.trim())) {
+                return item;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unexpected discovery mode %s", value));
+    }
+
+    public String value() {
+        return value;
+    }
+
+    /**
+     * Open socket sending discovery requests and receiving the responses.
+     *
+     * @param ttl
+     *            multicast time-to-live (router hops)
+     * @param networkInterface
+     *            interface multicast requests are sent from, null for the system default
+     *
+     * @return socket bound to an ephemeral port
+     *
+     * @throws IOException
+     *             if socket cannot be opened
+     */
+    DatagramSocket openClient(int ttl, NetworkInterface networkInterface) throws IOException {
+        switch (this) {
+        case MULTICAST:
+            MulticastSocket socket = new MulticastSocket();
+            socket.setTimeToLive(ttl);
+            if (networkInterface != null) {
+                socket.setNetworkInterface(networkInterface);
+            }
+            return socket;
+        case BROADCAST:
+        default:
+            DatagramSocket broadcast = new DatagramSocket();
+            broadcast.setBroadcast(true);
+            return broadcast;
+        }
+    }
+
+    /**
+     * Open socket receiving discovery requests.
+     *
+     * @param port
+     *            discovery port
+     * @param group
+     *            multicast group to join
+     * @param networkInterface
+     *            interface to join the group on, null for the system default
+     *
+     * @return socket bound to the port
+     *
+     * @throws IOException
+     *             if socket cannot be opened or group cannot be joined
+     */
+    DatagramSocket openServer(int port, InetAddress group, NetworkInterface networkInterface) throws IOException {
+        switch (this) {
+        case MULTICAST:
+            if (group == null || !group.isMulticastAddress()) {
+                throw new IllegalArgumentException(String.format("Invalid multicast group %s", group));
+            }
+            MulticastSocket socket = new MulticastSocket(port);
+            try {
+                socket.joinGroup(new InetSocketAddress(group, 0), networkInterface);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return socket;
+        case BROADCAST:
+        default:
+            return new DatagramSocket(port);
+        }
+    }
+
+    /**
+     * Resolve network interface from the property value.
+     *
+     * @param value
+     *            interface name (e.g. eth0) or one of its IP addresses
+     *
+     * @return network interface, null if value is not defined
+     */
+    public static NetworkInterface networkInterface(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            NetworkInterface networkInterface = NetworkInterface.getByName(value.trim());
+            if (networkInterface == null) {
+                networkInterface = NetworkInterface.getByInetAddress(InetAddress.getByName(value.trim()));
+            }
+            if (networkInterface == null) {
+                throw new IllegalArgumentException(String.format("Unknown network interface %s", value));
+            }
+            return networkInterface;
+        } catch (SocketException | UnknownHostException e) {
+            throw new IllegalArgumentException(String.format("Unknown network interface %s", value), e);
+        }
+    }
+}
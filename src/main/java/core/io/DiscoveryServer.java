@@ -12,10 +12,13 @@ import org.slf4j.LoggerFactory;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.UnknownHostException;
 
 /**
  * Listening UDP port {@link DiscoveryServer#port} for {@link Command#HELLO} and returns {@link DiscoveryServer#peerId}
- * back. Does not return any response if received other than {@link Command#HELLO} command.
+ * back. Does not return any response if received other than {@link Command#HELLO} command. Requests are received as
+ * sub-net broadcast or from the joined multicast group, see {@link DiscoveryMode}.
  */
 public class DiscoveryServer implements Runnable, Config {
     private static final Logger log = LoggerFactory.getLogger(DiscoveryServer.class);
@@ -23,8 +26,12 @@ public class DiscoveryServer implements Runnable, Config {
     private int defaultPacketBufferLength;
     private final int port;
     private final String peerId;
+    private final DiscoveryMode mode;
+    private final InetAddress group;
+    private final NetworkInterface networkInterface;
 
-    private boolean stop;
+    private volatile boolean stop;
+    private volatile DatagramSocket socket;
 
     /**
      * @param defaultPacketBufferLength
@@ -35,15 +42,44 @@ public class DiscoveryServer implements Runnable, Config {
      *            peer Id
      */
     public DiscoveryServer(int defaultPacketBufferLength, int port, String peerId) {
+        this(defaultPacketBufferLength, port, peerId, DiscoveryMode.BROADCAST, null, null);
+    }
+
+    /**
+     * @param defaultPacketBufferLength
+     *            default packet buffer length
+     * @param port
+     *            discovery port
+     * @param peerId
+     *            peer Id
+     * @param mode
+     *            discovery transport
+     * @param group
+     *            multicast group to join in {@link DiscoveryMode#MULTICAST} mode
+     * @param networkInterface
+     *            interface to join the multicast group on, null for the system default
+     */
+    public DiscoveryServer(int defaultPacketBufferLength, int port, String peerId, DiscoveryMode mode,
+            String group, NetworkInterface networkInterface) {
+        try {
+            this.group = group != null ? InetAddress.getByName(group) : null;
+        } catch (UnknownHostException e) {
+            String msg = String.format("Invalid multicast group %s", group);
+            log.error(msg, e);
+            throw new RuntimeException(msg, e);
+        }
         this.defaultPacketBufferLength = defaultPacketBufferLength;
         this.port = port;
         this.peerId = peerId;
+        this.mode = mode;
+        this.networkInterface = networkInterface;
     }
 
     @Override
     public void run() {
         // open socket only once and reuse it
-        try (DatagramSocket socket = new DatagramSocket(port)) {
+        try (DatagramSocket socket = mode.openServer(port, group, networkInterface)) {
+            this.socket = socket;
             while (!stop) {
                 byte[] buf = new byte[defaultPacketBufferLength];
                 final DatagramPacket request = new DatagramPacket(buf, buf.length);
@@ -80,7 +116,9 @@ public class DiscoveryServer implements Runnable, Config {
                 }
             }
         } catch (Exception e) {
-            log.error("Failed to open socket on port {}", port, e);
+            if (!stop) {
+                log.error("Failed to open socket on port {}", port, e);
+            }
         }
         if (stop) {
             log.info("Execution stopped");
@@ -92,5 +130,10 @@ public class DiscoveryServer implements Runnable, Config {
      */
     public void stop() {
         stop = true;
+        // stopped server must not answer requests any more, so stop waiting for them
+        DatagramSocket socket = this.socket;
+        if (socket != null) {
+            socket.close();
+        }
     }
 }
@@ -0,0 +1,51 @@
+package core.io;
+
+/**
+ * Connection processing mode of the servers.
+ */
+public enum ExecutionMode {
+
+    /**
+     * Separate platform thread per accepted connection.
+     */
+    THREAD("thread"),
+    /**
+     * Separate virtual thread per accepted connection (requires Java 21, otherwise falls back to pooled platform
+     * threads).
+     */
+    VIRTUAL("virtual"),
+    /**
+     * Non-blocking selector event loops shared by all connections.
+     */
+    NIO("nio");
+
+    private String value;
+
+    ExecutionMode(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Resolve mode from the property value.
+     *
+     * @param value
+     *            mode string representation
+     *
+     * @return enum value, {@link ExecutionMode#THREAD} if value is not defined
+     */
+    public static ExecutionMode fromString(String value) {
+        if (value == null || value.isBlank()) {
+            return THREAD;
+        }
+        for (ExecutionMode item : values()) {
+            if (item.value.equalsIgnoreCase(value.trim())) {
+                return item;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unexpected execution mode %s", value));
+    }
+
+    public String value() {
+        return value;
+    }
+}
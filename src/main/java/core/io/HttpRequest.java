@@ -0,0 +1,130 @@
+package core.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * HTTP/1.1 request head received by {@link ApiServer}. Reads exactly one request from the connection, so the following
+ * pipelined request stays in the stream.
+ *
+ * @param requestLine
+ *            request line, e.g. {@code GET /messages HTTP/1.1}
+ * @param headers
+ *            request headers with lower case names
+ */
+record HttpRequest(String requestLine, Map<String, String> headers) {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS = 100;
+
+    /**
+     * @param name
+     *            header name
+     *
+     * @return header value or null if not sent
+     */
+    String header(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Read request line and headers and skip request body, API does not expect any.
+     *
+     * @param in
+     *            connection input stream
+     *
+     * @return request or null if connection was closed before the next request
+     *
+     * @throws IOException
+     *             if connection failed or was closed in the middle of the request
+     * @throws IllegalArgumentException
+     *             if request framing is not valid
+     */
+    static HttpRequest read(InputStream in) throws IOException {
+        String requestLine;
+        // empty lines before request line are ignored (RFC 7230, section 3.5)
+        do {
+            requestLine = readLine(in);
+            if (requestLine == null) {
+                return null;
+            }
+        } while (requestLine.isEmpty());
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while (!(line = readLine(in, true)).isEmpty()) {
+            int separator = line.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid HTTP header " + line);
+            }
+            if (headers.size() >= MAX_HEADERS) {
+                throw new IllegalArgumentException(String.format("Request exceeds %s headers", MAX_HEADERS));
+            }
+            String name = line.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(separator + 1).trim();
+            headers.merge(name, value, (previous, next) -> previous + ", " + next);
+        }
+        HttpRequest request = new HttpRequest(requestLine, headers);
+        request.skipBody(in);
+        return request;
+    }
+
+    private void skipBody(InputStream in) throws IOException {
+        if (header("Transfer-Encoding") != null) {
+            throw new IllegalArgumentException("Request body is not supported");
+        }
+        String contentLength = header("Content-Length");
+        if (contentLength == null) {
+            return;
+        }
+        long length;
+        try {
+            length = Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid Content-Length " + contentLength);
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid Content-Length " + contentLength);
+        }
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Connection closed in the middle of the request body");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        return readLine(in, false);
+    }
+
+    private static String readLine(InputStream in, boolean required) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (line.size() == 0 && !required) {
+                    return null;
+                }
+                throw new EOFException("Connection closed in the middle of the request");
+            }
+            if (line.size() >= MAX_LINE_LENGTH) {
+                throw new IllegalArgumentException(String.format("Request line exceeds %s bytes", MAX_LINE_LENGTH));
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        // header values are ISO-8859-1, request target is percent-encoded ASCII
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+}
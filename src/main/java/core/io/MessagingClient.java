@@ -1,38 +1,48 @@
 package core.io;
 
+import core.io.PeerConnectionPool.PeerConnection;
 import core.manager.MessagesManager;
+import core.manager.PeerHealth;
 import core.manager.PeerManager;
 import core.model.Command;
+import core.model.Feature;
 import core.model.Message;
 import core.model.Peer;
+import core.model.PeerInfo;
 import core.model.Request;
 import core.model.Response;
+import core.model.Status;
 import core.util.Config;
-import core.util.JsonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 /**
- * Performing message exchange with known peers by sending stored messages via peer TCP port {@link Peer#port()}.
+ * Performing message exchange with known peers by sending stored messages via peer TCP port {@link Peer#port()}. In
+ * push mode new messages wake the client up and are sent after {@link MessagingClient#pushLingerMs}, periodic rounds
+ * then only repair what was missed (anti-entropy). In gossip mode every round contacts only
+ * {@link MessagingClient#gossipFanout} peers taken from a shuffled order of all peers, so every peer is contacted once
+ * per cycle and messages spread from peer to peer. Peers failing the exchange are backed off, timeouts adapt to the
+ * peer round trip time and the round waits only as long as its slowest peer is expected to take, see
+ * {@link PeerHealth}.
  */
 public class MessagingClient implements Runnable, Config {
 
@@ -40,15 +50,36 @@ public class MessagingClient implements Runnable, Config {
 
     private static final int SOCKET_TIMEOUT_MS = 1000;
     private static final int EXCHANGE_TIMEOUT_MS = 5000;
+    // keeps batch request well below the frame size limit
+    private static final int MAX_BATCH_SIZE = 1000;
 
     private final MessagesManager msgMgr;
     private final PeerManager peerMgr;
 
-    private final String commandString;
+    private final List<Feature> features;
     private final int timeout;
-    private boolean stop;
+    private final int pushLingerMs;
+    private final int gossipFanout;
+    private volatile boolean stop;
+
+    // set by message listener, guarded by wakeup
+    private final Object wakeup = new Object();
+    private boolean pushRequested;
 
     private final ExecutorService executor;
+    private final PeerConnectionPool pool;
+
+    // highest message id received from the peer
+    private final Map<Peer, Long> watermarks = new ConcurrentHashMap<>();
+    // peers which accepted the history digest in the last successful handshake
+    private final Set<Peer> digestPeers = ConcurrentHashMap.newKeySet();
+    // peers with exchange running
+    private final Set<Peer> inFlight = ConcurrentHashMap.newKeySet();
+    private final int fullSyncRounds;
+    private long round;
+    // peers to contact in the following gossip rounds, reshuffled once all were contacted
+    private List<Peer> gossipOrder = List.of();
+    private int gossipCursor;
 
     private final String peerId;
 
@@ -63,116 +94,386 @@ public class MessagingClient implements Runnable, Config {
      *            peer manager {@see PeerManager}
      */
     public MessagingClient(int timeout, String peerId, MessagesManager msgMgr, PeerManager peerMgr) {
+        this(timeout, peerId, msgMgr, peerMgr, new Options());
+    }
+
+    /**
+     * @param peerId
+     *            peer id
+     * @param timeout
+     *            socket timeout
+     * @param msgMgr
+     *            messaging manager {@see MessagesManager}
+     * @param peerMgr
+     *            peer manager {@see PeerManager}
+     * @param options
+     *            exchange options
+     */
+    public MessagingClient(int timeout, String peerId, MessagesManager msgMgr, PeerManager peerMgr,
+            Options options) {
         this.msgMgr = msgMgr;
         this.timeout = timeout;
         this.peerId = peerId;
         this.peerMgr = peerMgr;
-        this.commandString = JsonUtil.toJson(new Request(Command.HELLO, peerId, null, null));
+        this.features = options.features.isEmpty() ? null : List.copyOf(options.features);
         this.executor = Executors.newCachedThreadPool();
+        this.fullSyncRounds = options.fullSyncRounds;
+        this.pool = new PeerConnectionPool(options.poolMaxIdleMs);
+        peerMgr.addExpirationListener(pool::evict);
+        peerMgr.addExpirationListener(watermarks::remove);
+        peerMgr.addExpirationListener(digestPeers::remove);
+        this.pushLingerMs = options.pushLingerMs;
+        this.gossipFanout = options.gossipFanout;
+        if (pushLingerMs >= 0) {
+            // listener runs on the storing thread, so it only wakes the client up
+            msgMgr.addListener((id, message) -> {
+                if (msgMgr.hasNewMessages()) {
+                    requestPush();
+                }
+            });
+        }
     }
 
     @Override
     public void run() {
+        long nextRound = 0;
         while (!stop) {
-            List<Future<?>> futures = new ArrayList<>();
-            Collection<Peer> peers = peerMgr.getPeers();
-            Map<Long, Message> newMsgs = msgMgr.getNewMessages();
-            log.debug("Executing messaging exchange for {} peers", peers.size());
-            for (Peer peer : peers) {
-                String peerId = peer.peerId();
-                String ipAddress = peer.ipAddress();
-                int port = peer.port();
-                Future<?> future = executor.submit(() -> {
-                    log.debug("Executing messaging receive for peer {} {}:{}", peerId, ipAddress, port);
-                    // handshake
-                    Socket socket = null;
-                    PrintWriter out = null;
-                    BufferedReader in = null;
-                    try {
-                        socket = new Socket();
-                        socket.connect(new InetSocketAddress(ipAddress, port), SOCKET_TIMEOUT_MS);
-                        out = new PrintWriter(socket.getOutputStream(), true);
-                        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                        log.debug("Sent message {} to peer {} {}:{}", commandString, peerId, ipAddress, port);
-                        // send message to the peer
-                        out.println(commandString);
-                        out.flush();
-                        log.debug("Sent message {} to peer {} {}:{}", commandString, peerId, ipAddress, port);
-                        String input = readInput(in);
-                        log.debug("Received message {} from peer {} {}:{}", input, peerId, ipAddress, port);
-                        Response response = JsonUtil.fromJson(input, Response.class);
-                        Set<Long> messageIds = new HashSet<>();
-                        if (response != null && response.messages() != null) {
-                            for (Entry<Long, Message> entry : response.messages().entrySet()) {
-                                Long id = entry.getKey();
-                                messageIds.add(id);
-                                Message message = entry.getValue();
-                                log.debug("Saving message {} {} from peer {}", id, message.message(), message.peerId());
-                                msgMgr.addMessage(id, message.peerId(), message.message());
-                            }
-                        }
-                        // do not send messages peer has already
-                        Map<Long, Message> msgsToSend = newMsgs.entrySet().stream()
-                                // filter messages without id
-                                .filter(entry -> entry.getKey() != null)
-                                // filter messages without message
-                                .filter(entry -> entry.getValue() != null)
-                                // filter messages from the peer
-                                .filter(entry -> !peerId.equals(entry.getValue().peerId()))
-                                // filter messages user has already
-                                .filter(entry -> !messageIds.contains(entry.getKey()))
-                                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-                        log.debug("Sending new {} messages to peer {} {}:{}", msgsToSend.size(), peerId, ipAddress,
-                                port);
-                        PrintWriter outFinal = out;
-                        BufferedReader inFinal = in;
-                        msgsToSend.entrySet().stream().forEach(entry -> sendMessage(outFinal, inFinal, peerId,
-                                ipAddress, port, entry.getKey(), entry.getValue().message()));
-                        log.debug("Sent new {} messages to peer {} {}:{}", msgsToSend.size(), peerId, ipAddress, port);
-                    } catch (Exception e) {
-                        log.error("Failed to perform message exchange with peer {} {}:{}", peerId, ipAddress, port, e);
-                    } finally {
-                        try {
-                            socket.close();
-                        } catch (Exception e) {
-                        }
-                        try {
-                            out.close();
-                        } catch (Exception e) {
-                        }
-                        try {
-                            in.close();
-                        } catch (Exception e) {
-                        }
-                    }
-                });
-                futures.add(future);
-            }
-            for (Future<?> future : futures) {
+            long now = System.currentTimeMillis();
+            if (now >= nextRound) {
+                // periodic full sync picks up messages peers received with the id lower than watermark
+                boolean fullSync = fullSyncRounds <= 1 || round++ % fullSyncRounds == 0;
+                exchangeAll(fullSync);
+                nextRound = System.currentTimeMillis() + timeout;
+                log.debug("Executing messaging exchange waits {}ms", timeout);
+            } else if (awaitPush(nextRound - now) && !stop) {
+                // messages stored within the linger time are sent together
+                if (pushLingerMs > 0) {
+                    sleep(pushLingerMs);
+                }
+                log.debug("Pushing new messages to peers");
+                exchangeAll(false);
+            }
+        }
+    }
+
+    /**
+     * Exchange messages with all known peers and clear the sent new messages.
+     *
+     * @param fullSync
+     *            true to request full history, false for messages newer than the peer watermark
+     */
+    private void exchangeAll(boolean fullSync) {
+        List<Future<?>> futures = new ArrayList<>();
+        // exchange still running since the previous round is not started again
+        List<Peer> available = peerMgr.getAvailablePeers();
+        available.removeIf(inFlight::contains);
+        Collection<Peer> peers = selectPeers(available);
+        Map<Long, Message> newMsgs = msgMgr.getNewMessages();
+        log.debug("Executing messaging exchange for {} peers", peers.size());
+        long roundTimeoutMs = 0;
+        for (Peer peer : peers) {
+            Long sinceId = fullSync ? null : watermarks.get(peer);
+            PeerHealth health = peerMgr.getHealth(peer);
+            roundTimeoutMs = Math.max(roundTimeoutMs,
+                    health.connectTimeout(SOCKET_TIMEOUT_MS) + 2L * readTimeout(peer, sinceId, health));
+            inFlight.add(peer);
+            futures.add(executor.submit(() -> exchange(peer, sinceId, newMsgs)));
+        }
+        // slow peer does not stretch the round beyond the time the slowest healthy peer needs
+        long deadline = System.currentTimeMillis() + Math.min(roundTimeoutMs, EXCHANGE_TIMEOUT_MS);
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.warn("Exchange did not complete within the round, continuing in the background");
+            } catch (Exception e) {
+                log.warn("Future failed to complete", e);
+            }
+        }
+        // clear sent new messages, messages stored during the exchange are sent with the next round
+        msgMgr.clearNewMessages(newMsgs.keySet());
+    }
+
+    /**
+     * Select peers to contact in this round.
+     *
+     * @param peers
+     *            known peers
+     *
+     * @return all peers, or {@link MessagingClient#gossipFanout} peers following the previous round in gossip mode
+     */
+    private Collection<Peer> selectPeers(Collection<Peer> peers) {
+        if (gossipFanout <= 0 || peers.size() <= gossipFanout) {
+            return peers;
+        }
+        Set<Peer> known = new HashSet<>(peers);
+        List<Peer> selected = new ArrayList<>(gossipFanout);
+        while (selected.size() < gossipFanout) {
+            if (gossipCursor >= gossipOrder.size()) {
+                // new cycle includes peers discovered meanwhile and drops expired ones
+                List<Peer> order = new ArrayList<>(known);
+                Collections.shuffle(order);
+                gossipOrder = order;
+                gossipCursor = 0;
+            }
+            Peer peer = gossipOrder.get(gossipCursor++);
+            if (known.contains(peer) && !selected.contains(peer)) {
+                selected.add(peer);
+            }
+        }
+        log.debug("Gossip round selected {} of {} peers", selected.size(), peers.size());
+        return selected;
+    }
+
+    private void requestPush() {
+        synchronized (wakeup) {
+            pushRequested = true;
+            wakeup.notifyAll();
+        }
+    }
+
+    /**
+     * Wait for new messages to push.
+     *
+     * @param timeoutMs
+     *            maximal wait time in milliseconds
+     *
+     * @return true if new messages should be pushed, false if timed out
+     */
+    private boolean awaitPush(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (wakeup) {
+            while (!pushRequested && !stop) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
                 try {
-                    future.get(EXCHANGE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                } catch (Exception e) {
-                    log.warn("Future failed to complete", e);
+                    wakeup.wait(remaining);
+                } catch (InterruptedException e) {
+                    return false;
                 }
             }
-            futures.clear();
-            // clear all new messages
-            msgMgr.clearNewMessages();
-            log.debug("Executing messaging exchange waits {}ms", timeout);
+            boolean push = pushRequested;
+            pushRequested = false;
+            return push;
+        }
+    }
+
+    private void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            // do nothing
+        }
+    }
+
+    /**
+     * Perform message exchange with the peer over pooled connection.
+     *
+     * @param peer
+     *            peer
+     * @param sinceId
+     *            highest message id received from the peer, null to request full history
+     * @param newMsgs
+     *            new messages to send
+     */
+    private void exchange(Peer peer, Long sinceId, Map<Long, Message> newMsgs) {
+        String peerId = peer.peerId();
+        String ipAddress = peer.ipAddress();
+        int port = peer.port();
+        log.debug("Executing messaging receive for peer {} {}:{}", peerId, ipAddress, port);
+        PeerHealth health = peerMgr.getHealth(peer);
+        int connectTimeout = health.connectTimeout(SOCKET_TIMEOUT_MS);
+        int readTimeout = readTimeout(peer, sinceId, health);
+        PeerConnection connection = null;
+        try {
+            connection = pool.acquire(peer, connectTimeout, readTimeout);
+            recordConnect(health, connection);
+            // handshake
+            Response response;
+            long start = System.nanoTime();
             try {
-                Thread.sleep(timeout);
-            } catch (InterruptedException e) {
-                // do nothing
+                response = hello(connection, peer, sinceId);
+            } catch (IOException e) {
+                // only I/O error or end of stream means the pooled socket went stale
+                if (!connection.isReused()) {
+                    throw e;
+                }
+                log.debug("Pooled connection to peer {} {}:{} is stale, reconnecting", peerId, ipAddress, port, e);
+                connection.close();
+                connection = pool.open(peer, connectTimeout, readTimeout);
+                recordConnect(health, connection);
+                start = System.nanoTime();
+                response = hello(connection, peer, sinceId);
+            }
+            if (response.status() == Status.ERROR) {
+                if (connection.isReused()) {
+                    // peer may not accept handshake on already used connection
+                    pool.disableReuse(peer);
+                }
+                throw new IOException(String.format("Handshake rejected: %s", response.message()));
+            }
+            long rttMs = (System.nanoTime() - start) / 1_000_000;
+            if (response.features() != null && response.features().contains(Feature.DIGEST)) {
+                digestPeers.add(peer);
+            } else {
+                digestPeers.remove(peer);
+            }
+            if (response.peers() != null) {
+                mergePeers(peer, response.peers());
+            }
+            Set<Long> messageIds = new HashSet<>();
+            if (response.messages() != null) {
+                long watermark = sinceId != null ? sinceId : Long.MIN_VALUE;
+                for (Entry<Long, Message> entry : response.messages().entrySet()) {
+                    Long id = entry.getKey();
+                    messageIds.add(id);
+                    watermark = Math.max(watermark, id);
+                    Message message = entry.getValue();
+                    log.debug("Saving message {} {} from peer {}", id, message.message(), message.peerId());
+                    msgMgr.addMessage(id, message.peerId(), message.message());
+                }
+                if (watermark != Long.MIN_VALUE) {
+                    watermarks.merge(peer, watermark, Math::max);
+                }
+            }
+            // do not send messages peer has already
+            Map<Long, Message> msgsToSend = newMsgs.entrySet().stream()
+                    // filter messages without id
+                    .filter(entry -> entry.getKey() != null)
+                    // filter messages without message
+                    .filter(entry -> entry.getValue() != null)
+                    // filter messages from the peer
+                    .filter(entry -> !peerId.equals(entry.getValue().peerId()))
+                    // filter messages user has already
+                    .filter(entry -> !messageIds.contains(entry.getKey()))
+                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+            log.debug("Sending new {} messages to peer {} {}:{}", msgsToSend.size(), peerId, ipAddress, port);
+            boolean confirmed = true;
+            if (response.features() != null && response.features().contains(Feature.BATCH)) {
+                confirmed = sendMessages(connection, peerId, ipAddress, port, msgsToSend);
+            } else {
+                // older peers get one request per message
+                for (Entry<Long, Message> entry : msgsToSend.entrySet()) {
+                    confirmed &= sendMessage(connection, peerId, ipAddress, port, entry.getKey(),
+                            entry.getValue().message());
+                }
+            }
+            log.debug("Sent new {} messages to peer {} {}:{}", msgsToSend.size(), peerId, ipAddress, port);
+            // keep connection open for the next round only if protocol state is known
+            if (confirmed) {
+                health.recordSuccess(rttMs, System.currentTimeMillis());
+                // answering peer is alive, so discovery does not need to confirm it
+                peerMgr.addPeer(peerId, ipAddress, port);
+                pool.release(peer, connection);
+                connection = null;
+            } else {
+                health.recordFailure(System.currentTimeMillis());
+            }
+        } catch (Exception e) {
+            health.recordFailure(System.currentTimeMillis());
+            // peer may have turned digest off, so the next attempt waits for the full history
+            digestPeers.remove(peer);
+            log.error("Failed to perform message exchange with peer {} {}:{}", peerId, ipAddress, port, e);
+        } finally {
+            inFlight.remove(peer);
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * @param peer
+     *            peer
+     * @param sinceId
+     *            highest message id received from the peer, null to request full history
+     * @param health
+     *            peer health
+     *
+     * @return read timeout of the exchange with the peer
+     */
+    private int readTimeout(Peer peer, Long sinceId, PeerHealth health) {
+        // full history may take longer than the usual exchange, only peers known to accept digest return less
+        boolean fullHistory = sinceId == null && !digestPeers.contains(peer);
+        return fullHistory ? EXCHANGE_TIMEOUT_MS : health.exchangeTimeout(EXCHANGE_TIMEOUT_MS);
+    }
+
+    /**
+     * Merge peers seen by the responding peer, so this peer does not wait for discovery to find them.
+     *
+     * @param peer
+     *            responding peer
+     * @param peers
+     *            peers seen by the responding peer
+     */
+    private void mergePeers(Peer peer, List<PeerInfo> peers) {
+        int added = 0;
+        for (PeerInfo info : peers) {
+            if (info.peerId() == null || info.ipAddress() == null || peerId.equals(info.peerId())) {
+                continue;
+            }
+            // peers on the responding peer host are known to it by loopback address only
+            String ipAddress = isLoopback(info.ipAddress()) ? peer.ipAddress() : info.ipAddress();
+            if (peerMgr.mergePeer(info.peerId(), ipAddress, info.port(), info.ageMs())) {
+                added++;
             }
         }
+        log.debug("Merged {} peers ({} new) from peer {} {}:{}", peers.size(), added, peer.peerId(),
+                peer.ipAddress(), peer.port());
+    }
+
+    private static boolean isLoopback(String ipAddress) {
+        return ipAddress.startsWith("127.") || ipAddress.equals("::1") || ipAddress.equals("0:0:0:0:0:0:0:1");
+    }
+
+    private void recordConnect(PeerHealth health, PeerConnection connection) {
+        if (!connection.isReused()) {
+            health.recordConnect(connection.getConnectMs());
+        }
+    }
+
+    /**
+     * Send handshake to the peer.
+     *
+     * @param connection
+     *            peer connection
+     * @param peer
+     *            peer
+     * @param sinceId
+     *            highest message id received from the peer, null to request full history
+     *
+     * @return handshake response
+     *
+     * @throws IOException
+     *             if handshake failed or peer closed connection
+     */
+    private Response hello(PeerConnection connection, Peer peer, Long sinceId) throws IOException {
+        // peers supporting digest return only messages this peer differs in, others ignore it
+        Map<Integer, Long> digest = features != null && features.contains(Feature.DIGEST)
+                ? msgMgr.getDigest().buckets()
+                : null;
+        Request request = Request.builder(Command.HELLO, peerId).sinceId(sinceId).features(features)
+                .digest(digest).build();
+        // send message to the peer
+        connection.send(request);
+        log.debug("Sent message {} to peer {} {}:{}", request, peer.peerId(), peer.ipAddress(), peer.port());
+        Response response = connection.receive();
+        log.debug("Received message {} from peer {} {}:{}", response, peer.peerId(), peer.ipAddress(), peer.port());
+        if (response == null) {
+            throw new IOException("Connection closed by peer");
+        }
+        // older peers do not return features and keep using JSON lines
+        connection.setBinary(response.features() != null && response.features().contains(Feature.SMILE));
+        return response;
     }
 
     /**
      * Send new message to the peer.
      *
-     * @param out
-     *            output stream
+     * @param connection
+     *            peer connection
      * @param peerId
      *            peer Id
      * @param ipAddress
@@ -181,32 +482,154 @@ public class MessagingClient implements Runnable, Config {
      *            port
      * @param messages
      *            messages
+     *
+     * @return true if peer confirmed message
      */
-    private void sendMessage(PrintWriter out, BufferedReader in, String peerId, String ipAddress, int port,
+    private boolean sendMessage(PeerConnection connection, String peerId, String ipAddress, int port,
             Long messageId, String message) {
         log.debug("Sending new message to peer {}  {}:{}, Message id {}", peerId, ipAddress, port, messageId);
-        String requestString = null;
-        requestString = JsonUtil.toJson(new Request(Command.NEW_MESSAGE, this.peerId, messageId, message));
-        out.println(requestString);
-        out.flush();
+        Request request = new Request(Command.NEW_MESSAGE, this.peerId, messageId, message);
         try {
-            String inputString = readInput(in);
-            if (inputString == null) {
+            connection.send(request);
+            Response response = connection.receive();
+            if (response == null) {
                 log.warn("Failed to get sent message confirmation to peer {} {}:{}, message {}", peerId, ipAddress,
-                        port, requestString);
-            } else {
-                log.debug("Received sent message confirmation to peer {} {}:{}, message {} confirmation {}", peerId,
-                        ipAddress, port, requestString, inputString);
+                        port, request);
+                return false;
             }
+            log.debug("Received sent message confirmation to peer {} {}:{}, message {} confirmation {}", peerId,
+                    ipAddress, port, request, response);
+            return true;
         } catch (IOException e) {
-            log.debug("Failed to send message to peer {} {}:{}, message {}", peerId, ipAddress, port, requestString, e);
+            log.debug("Failed to send message to peer {} {}:{}, message {}", peerId, ipAddress, port, request, e);
+            return false;
         }
     }
 
+    /**
+     * Send new messages to the peer in batches, every batch is acknowledged with single response.
+     *
+     * @param connection
+     *            peer connection
+     * @param peerId
+     *            peer Id
+     * @param ipAddress
+     *            IP address
+     * @param port
+     *            port
+     * @param messages
+     *            messages by id
+     *
+     * @return true if peer confirmed all batches
+     */
+    private boolean sendMessages(PeerConnection connection, String peerId, String ipAddress, int port,
+            Map<Long, Message> messages) {
+        List<Entry<Long, Message>> entries = new ArrayList<>(messages.entrySet());
+        for (int from = 0; from < entries.size(); from += MAX_BATCH_SIZE) {
+            Map<Long, Message> batch = new LinkedHashMap<>();
+            for (Entry<Long, Message> entry : entries.subList(from, Math.min(from + MAX_BATCH_SIZE, entries.size()))) {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+            log.debug("Sending batch of {} messages to peer {} {}:{}", batch.size(), peerId, ipAddress, port);
+            Request request = Request.builder(Command.NEW_MESSAGES, this.peerId).messages(batch).build();
+            try {
+                connection.send(request);
+                Response response = connection.receive();
+                if (response == null || response.status() != Status.OK) {
+                    log.warn("Failed to get batch confirmation from peer {} {}:{}, response {}", peerId, ipAddress,
+                            port, response);
+                    return false;
+                }
+                if (response.statuses() != null) {
+                    response.statuses().entrySet().stream().filter(entry -> entry.getValue() != Status.OK)
+                            .forEach(entry -> log.warn("Peer {} {}:{} rejected message {}", peerId, ipAddress, port,
+                                    entry.getKey()));
+                }
+            } catch (IOException e) {
+                log.debug("Failed to send batch to peer {} {}:{}", peerId, ipAddress, port, e);
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Stop messaging client.
      */
     public void stop() {
         stop = true;
+        synchronized (wakeup) {
+            wakeup.notifyAll();
+        }
+        pool.closeAll();
+    }
+
+    /**
+     * Exchange options, unset options keep the plain protocol with full history every round and no pooling, push or
+     * gossip.
+     */
+    public static class Options {
+        private int poolMaxIdleMs;
+        private int fullSyncRounds = 1;
+        private Set<Feature> features = EnumSet.noneOf(Feature.class);
+        private int pushLingerMs = -1;
+        private int gossipFanout;
+
+        /**
+         * @param poolMaxIdleMs
+         *            how long peer connection is kept open between exchange rounds, 0 to close it after every round
+         *
+         * @return this options
+         */
+        public Options poolMaxIdleMs(int poolMaxIdleMs) {
+            this.poolMaxIdleMs = poolMaxIdleMs;
+            return this;
+        }
+
+        /**
+         * @param fullSyncRounds
+         *            full history is requested every given amount of rounds, other rounds request only messages newer
+         *            than already received ones, 1 to always request full history
+         *
+         * @return this options
+         */
+        public Options fullSyncRounds(int fullSyncRounds) {
+            this.fullSyncRounds = fullSyncRounds;
+            return this;
+        }
+
+        /**
+         * @param features
+         *            protocol features offered to peers in the handshake, see {@link Feature}
+         *
+         * @return this options
+         */
+        public Options features(Set<Feature> features) {
+            this.features = features;
+            return this;
+        }
+
+        /**
+         * @param pushLingerMs
+         *            how long new messages are collected before they are pushed to peers, -1 to send them with the
+         *            periodic rounds only
+         *
+         * @return this options
+         */
+        public Options pushLingerMs(int pushLingerMs) {
+            this.pushLingerMs = pushLingerMs;
+            return this;
+        }
+
+        /**
+         * @param gossipFanout
+         *            count of peers contacted every round, 0 to contact all peers
+         *
+         * @return this options
+         */
+        public Options gossipFanout(int gossipFanout) {
+            this.gossipFanout = gossipFanout;
+            return this;
+        }
     }
 }
@@ -0,0 +1,355 @@
+package core.io;
+
+import core.manager.MessagesManager;
+import core.manager.PeerManager;
+import core.model.Feature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking engine of the {@link MessagingServer}. Accepts peer connections and multiplexes them over the fixed
+ * amount of selector event loops, so thread count does not grow with the amount of connected peers. Keeps the same
+ * protocol of JSON lines and binary frames, see {@link MessagingSession} and {@link WireStream}.
+ */
+class MessagingSelector {
+    private static final Logger log = LoggerFactory.getLogger(MessagingSelector.class);
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = WireStream.MAX_PAYLOAD_LENGTH;
+    // responses of the requests pipelined in a single read, enough for a couple of the largest responses
+    private static final long MAX_PENDING_BYTES = 2L * WireStream.MAX_PAYLOAD_LENGTH;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+
+    private final int port;
+    private final MessagesManager msgMgr;
+    private final PeerManager peerMgr;
+    private final Set<Feature> features;
+    private final EventLoop[] loops;
+
+    private volatile ServerSocketChannel server;
+    private volatile boolean stop;
+
+    /**
+     * @param port
+     *            message server port
+     * @param eventLoops
+     *            amount of event loop threads
+     * @param msgMgr
+     *            messages manager {@see MessagesManager}
+     * @param peerMgr
+     *            peer manager {@see PeerManager} to share known peers from, null to share none
+     * @param features
+     *            protocol features accepted from peers
+     */
+    MessagingSelector(int port, int eventLoops, MessagesManager msgMgr, PeerManager peerMgr, Set<Feature> features) {
+        this.port = port;
+        this.msgMgr = msgMgr;
+        this.peerMgr = peerMgr;
+        this.features = features;
+        this.loops = new EventLoop[Math.max(1, eventLoops)];
+    }
+
+    /**
+     * Accept connections in the calling thread until stopped.
+     *
+     * @throws IOException
+     *             if server socket cannot be opened
+     */
+    void run() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            this.server = server;
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(new InetSocketAddress(port));
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop();
+                Thread thread = new Thread(loops[i], "messaging-loop-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            log.info("Started {} messaging event loops on port {}", loops.length, port);
+            int next = 0;
+            while (!stop) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (AsynchronousCloseException e) {
+                    // server channel closed by stop()
+                    break;
+                }
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        } finally {
+            stop = true;
+            for (EventLoop loop : loops) {
+                if (loop != null) {
+                    loop.selector.wakeup();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop accepting connections and stop event loops.
+     */
+    void stop() {
+        stop = true;
+        ServerSocketChannel server = this.server;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * Single selector thread serving assigned connections.
+     */
+    class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Hand over accepted connection to this loop.
+         *
+         * @param channel
+         *            accepted channel
+         */
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stop) {
+                    selector.select(SELECT_TIMEOUT_MS);
+                    registerPending();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (Exception e) {
+                            log.error("Failed to process request from {}:{}", connection.address, connection.port, e);
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Messaging event loop failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+                log.info("Execution stopped");
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(channel, key));
+                } catch (IOException e) {
+                    log.error("Failed to register connection", e);
+                    try {
+                        channel.close();
+                    } catch (IOException ex) {
+                        // do nothing
+                    }
+                }
+            }
+        }
+
+        /**
+         * Connection state: partially received request line or frame and not yet sent responses. Requests are not read
+         * while responses are pending, so peers not reading responses cannot make the server buffer them.
+         */
+        class Connection {
+            private final SocketChannel channel;
+            private final SelectionKey key;
+            private final String address;
+            private final int port;
+            private final MessagingSession session;
+            private final Deque<ByteBuffer> output = new ArrayDeque<>();
+            private long pendingBytes;
+
+            private byte[] line = new byte[256];
+            private int lineLength;
+            // binary frame in progress, frame header is complete once frameHeaderRead reaches 4 length bytes
+            private boolean inFrame;
+            private int frameHeaderRead;
+            private int frameLength;
+            private byte[] frame;
+            private int frameRead;
+            private boolean closing;
+
+            Connection(SocketChannel channel, SelectionKey key) {
+                Socket socket = channel.socket();
+                this.channel = channel;
+                this.key = key;
+                this.address = socket.getInetAddress().getHostAddress();
+                this.port = socket.getPort();
+                this.session = new MessagingSession(msgMgr, peerMgr, features, address, port);
+            }
+
+            void read() throws IOException {
+                readBuffer.clear();
+                int read = channel.read(readBuffer);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                readBuffer.flip();
+                // everything sent after the session was closed is ignored
+                while (readBuffer.hasRemaining() && !closing) {
+                    if (inFrame) {
+                        readFrame();
+                        continue;
+                    }
+                    byte b = readBuffer.get();
+                    if (lineLength == 0 && b == WireStream.FRAME_MARKER) {
+                        inFrame = true;
+                        frameHeaderRead = 0;
+                        frameLength = 0;
+                    } else if (b == '\n') {
+                        processLine();
+                    } else {
+                        append(b);
+                    }
+                }
+                write();
+            }
+
+            void write() throws IOException {
+                while (!output.isEmpty()) {
+                    ByteBuffer buffer = output.peek();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                    pendingBytes -= output.poll().capacity();
+                }
+                if (!output.isEmpty()) {
+                    // next request is read once the peer received all responses
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else if (closing) {
+                    close();
+                } else {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+
+            void close() {
+                key.cancel();
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+
+            private void append(byte b) throws IOException {
+                if (lineLength == line.length) {
+                    if (line.length >= MAX_LINE_LENGTH) {
+                        throw new IOException(String.format("Request exceeds %s bytes", MAX_LINE_LENGTH));
+                    }
+                    line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE_LENGTH));
+                }
+                line[lineLength++] = b;
+            }
+
+            private void readFrame() throws IOException {
+                while (frameHeaderRead < 4) {
+                    if (!readBuffer.hasRemaining()) {
+                        return;
+                    }
+                    frameLength = frameLength << 8 | readBuffer.get() & 0xff;
+                    if (++frameHeaderRead == 4) {
+                        WireStream.checkLength(frameLength);
+                        frame = new byte[frameLength];
+                        frameRead = 0;
+                    }
+                }
+                int length = Math.min(readBuffer.remaining(), frameLength - frameRead);
+                readBuffer.get(frame, frameRead, length);
+                frameRead += length;
+                if (frameRead == frameLength) {
+                    byte[] payload = frame;
+                    inFrame = false;
+                    frame = null;
+                    respond(session.process(payload, true));
+                }
+            }
+
+            private void respond(byte[] response) {
+                pendingBytes += response.length;
+                if (pendingBytes > MAX_PENDING_BYTES) {
+                    log.warn("Closing connection from {}:{}, {} bytes of responses are pending", address, port,
+                            pendingBytes);
+                    output.clear();
+                    pendingBytes = 0;
+                    closing = true;
+                    return;
+                }
+                output.add(ByteBuffer.wrap(response));
+                if (session.isClosed()) {
+                    closing = true;
+                }
+            }
+
+            private void processLine() {
+                int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                byte[] requestMsg = Arrays.copyOf(line, length);
+                lineLength = 0;
+                if (requestMsg.length == 0) {
+                    log.info("Received empty message from {}:{}", address, port);
+                    closing = true;
+                    return;
+                }
+                respond(session.process(requestMsg, false));
+            }
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package core.io;
 
 import core.manager.MessagesManager;
+import core.manager.PeerManager;
 import core.model.Command;
-import core.model.Request;
+import core.model.Feature;
 import core.model.Response;
 import core.model.Status;
 import core.util.Config;
@@ -10,12 +11,13 @@ import core.util.JsonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * Listening TCP port {@link MessagingServer#port} for the commands {@link Command#HELLO} or
@@ -25,6 +27,13 @@ public class MessagingServer implements Runnable, Config {
     private static final Logger log = LoggerFactory.getLogger(MessagingServer.class);
     private int port;
     private MessagesManager msgMgr;
+    private final PeerManager peerMgr;
+    private final ExecutionMode mode;
+    private final int eventLoops;
+    private final int maxConnections;
+    private final int idleTimeoutMs;
+    private final Set<Feature> features;
+    private volatile MessagingSelector selector;
     private boolean stop;
 
     /**
@@ -34,18 +43,48 @@ public class MessagingServer implements Runnable, Config {
      *            messages manager {@see MessagesManager}
      */
     public MessagingServer(int port, MessagesManager msgMgr) {
+        this(port, msgMgr, null, new Options());
+    }
+
+    /**
+     * @param port
+     *            message server port
+     * @param msgMgr
+     *            messages manager {@see MessagesManager}
+     * @param peerMgr
+     *            peer manager {@see PeerManager} to share known peers from with {@link Feature#PEERS}, null to share
+     *            none
+     * @param options
+     *            connection processing options
+     */
+    public MessagingServer(int port, MessagesManager msgMgr, PeerManager peerMgr, Options options) {
         this.port = port;
         this.msgMgr = msgMgr;
+        this.peerMgr = peerMgr;
+        this.mode = options.mode;
+        this.eventLoops = options.eventLoops;
+        this.maxConnections = options.maxConnections;
+        this.idleTimeoutMs = options.idleTimeoutMs;
+        this.features = options.features;
     }
 
     @Override
     public void run() {
+        if (mode == ExecutionMode.NIO) {
+            runSelector();
+            return;
+        }
+        ConnectionDispatcher dispatcher = new ConnectionDispatcher(mode, maxConnections);
         // open socket only once and then reuse it
         try (ServerSocket server = new ServerSocket(port)) {
             server.setReuseAddress(true);
             while (!stop) {
                 // to accept multiple parallel requests we need to process each request in a separate thread
-                new Thread(new MessageRunnable(server.accept(), msgMgr)).start();
+                MessageRunnable runnable = new MessageRunnable(server.accept(), msgMgr);
+                if (!dispatcher.dispatch(runnable)) {
+                    log.warn("Rejecting connection, {} connections are already in progress", maxConnections);
+                    runnable.reject();
+                }
             }
             if (stop) {
                 log.info("Execution stopped");
@@ -54,6 +93,25 @@ public class MessagingServer implements Runnable, Config {
             String msg = String.format("Failed to open socket on port %s", port);
             log.error(msg, e);
             throw new RuntimeException(msg, e);
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Serve all connections with the non-blocking selector engine.
+     */
+    private void runSelector() {
+        selector = new MessagingSelector(port, eventLoops, msgMgr, peerMgr, features);
+        if (stop) {
+            return;
+        }
+        try {
+            selector.run();
+        } catch (IOException e) {
+            String msg = String.format("Failed to open socket on port %s", port);
+            log.error(msg, e);
+            throw new RuntimeException(msg, e);
         }
     }
 
@@ -62,6 +120,79 @@ public class MessagingServer implements Runnable, Config {
      */
     public void stop() {
         stop = true;
+        MessagingSelector selector = this.selector;
+        if (selector != null) {
+            selector.stop();
+        }
+    }
+
+    /**
+     * Connection processing options, unset options keep the single threaded server without protocol features.
+     */
+    public static class Options {
+        private ExecutionMode mode = ExecutionMode.THREAD;
+        private int eventLoops = 1;
+        private int maxConnections;
+        private int idleTimeoutMs;
+        private Set<Feature> features = EnumSet.noneOf(Feature.class);
+
+        /**
+         * @param mode
+         *            connection processing mode
+         *
+         * @return this options
+         */
+        public Options mode(ExecutionMode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * @param eventLoops
+         *            amount of event loop threads in {@link ExecutionMode#NIO} mode
+         *
+         * @return this options
+         */
+        public Options eventLoops(int eventLoops) {
+            this.eventLoops = eventLoops;
+            return this;
+        }
+
+        /**
+         * @param maxConnections
+         *            concurrently processed connections limit in {@link ExecutionMode#THREAD} and
+         *            {@link ExecutionMode#VIRTUAL} modes, 0 for no limit
+         *
+         * @return this options
+         */
+        public Options maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * @param idleTimeoutMs
+         *            how long connection may wait for the next request before it is closed in
+         *            {@link ExecutionMode#THREAD} and {@link ExecutionMode#VIRTUAL} modes, so idle pooled peer
+         *            connections do not hold threads and connection limit forever, 0 for no limit
+         *
+         * @return this options
+         */
+        public Options idleTimeoutMs(int idleTimeoutMs) {
+            this.idleTimeoutMs = idleTimeoutMs;
+            return this;
+        }
+
+        /**
+         * @param features
+         *            protocol features accepted from peers, see {@link Feature}
+         *
+         * @return this options
+         */
+        public Options features(Set<Feature> features) {
+            this.features = features;
+            return this;
+        }
     }
 
     /**
@@ -86,72 +217,27 @@ public class MessagingServer implements Runnable, Config {
 
         @Override
         public void run() {
-            try (PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));) {
-                String address = socket.getInetAddress().getHostAddress();
-                int port = socket.getPort();
-                Command expectedCommand = Command.HELLO;
+            String address = socket.getInetAddress().getHostAddress();
+            int port = socket.getPort();
+            try {
+                socket.setSoTimeout(idleTimeoutMs);
+                WireStream wire = new WireStream(socket.getInputStream(), socket.getOutputStream());
+                MessagingSession session = new MessagingSession(msgMgr, peerMgr, features, address, port);
                 while (true) {
-                    String requestMsg = readInput(in);
-                    if (requestMsg == null || requestMsg.isEmpty()) {
-                        log.info("Received empty message from {}:{}", requestMsg, address, port);
+                    WireStream.Payload request = wire.read();
+                    if (request == null || request.bytes().length == 0 && !request.binary()) {
+                        log.info("Received empty message from {}:{}", address, port);
                         break;
                     }
-                    log.info("Received message {} from {}:{}", requestMsg, address, port);
-                    Response response;
-                    try {
-                        Request request = JsonUtil.fromJson(requestMsg, Request.class);
-                        String peerId = request.peerId();
-                        Command command = request.command();
-                        if (request.command() == null) {
-                            throw new IllegalArgumentException(
-                                    String.format("Missing command in the request %s", requestMsg));
-                        }
-                        if (expectedCommand != command) {
-                            throw new IllegalArgumentException(
-                                    String.format("Expected command '%s' but received '%s'", expectedCommand.value(),
-                                            command.value()));
-                        }
-                        switch (command) {
-                        case HELLO:
-                            if (peerId != null) {
-                                response = new Response(Status.OK, msgMgr.getMessages(), null, null);
-                                expectedCommand = Command.NEW_MESSAGE;
-                            } else {
-                                throw new IllegalArgumentException(
-                                        String.format("Missing peer_id in request %s", requestMsg));
-                            }
-                            break;
-                        case NEW_MESSAGE:
-                            if (peerId != null) {
-                                msgMgr.addNewMessage(peerId, request.message());
-                                response = new Response(Status.OK, null, null, null);
-                            } else {
-                                throw new IllegalArgumentException(
-                                        String.format("Missing peer_id in request %s", requestMsg));
-                            }
-                            break;
-                        case UNKNOWN:
-                        default:
-                            throw new IllegalArgumentException(String.format("Invalid request %s", requestMsg));
-                        }
-                    } catch (Exception e) {
-                        String msg = String.format("Failed to process message exchange %s", requestMsg);
-                        log.warn(msg, e);
-                        response = new Response(Status.ERROR, null, e.getMessage(), null);
-                        String responseJson = JsonUtil.toJson(response);
-                        log.debug("Returning response {} to {}:{}", responseJson, address, port);
-                        out.println(responseJson);
-                        out.flush();
+                    // response is flushed right away to respect incoming terminal connections,
+                    // which sends every line as a separate chunks
+                    wire.write(session.process(request.bytes(), request.binary()));
+                    if (session.isClosed()) {
                         break;
                     }
-                    String responseJson = JsonUtil.toJson(response);
-                    log.debug("Returning response {} to {}:{}", responseJson, address, port);
-                    out.println(responseJson);
-                    // send empty line at the end to respect incoming terminal connections,
-                    // which sends every line as a separate chunks
-                    out.flush();
                 }
+            } catch (SocketTimeoutException e) {
+                log.debug("Closing connection from {}:{} idle for {}ms", address, port, idleTimeoutMs);
             } catch (IOException e) {
                 log.error("Failed to process request", e);
             } finally {
@@ -162,5 +248,23 @@ public class MessagingServer implements Runnable, Config {
                 }
             }
         }
+
+        /**
+         * Respond with {@link Status#ERROR} without reading the request and close connection.
+         */
+        public void reject() {
+            try (PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                Response response = new Response(Status.ERROR, null, "Too many connections in progress", null);
+                out.println(JsonUtil.toJson(response));
+            } catch (IOException e) {
+                log.debug("Failed to reject connection", e);
+            } finally {
+                try {
+                    socket.close();
+                } catch (Exception e) {
+                    // do nothing
+                }
+            }
+        }
     }
 }
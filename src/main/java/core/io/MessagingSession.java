@@ -0,0 +1,234 @@
+package core.io;
+
+import core.manager.MessagesManager;
+import core.manager.PeerManager;
+import core.model.Command;
+import core.model.Feature;
+import core.model.Message;
+import core.model.PeerInfo;
+import core.model.Request;
+import core.model.Response;
+import core.model.Status;
+import core.util.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Peer messaging protocol state of a single connection. Expects {@link Command#HELLO} first and
+ * {@link Command#NEW_MESSAGE} afterwards, independently of the way connection is served. Handshake may be repeated on
+ * the same connection, so peers can keep connection open between exchange rounds. Responses are sent as binary frames
+ * once both peers agreed on {@link Feature#SMILE} in the handshake, see {@link WireStream}, and
+ * {@link Command#NEW_MESSAGES} batches are accepted once they agreed on {@link Feature#BATCH}. Handshake with history
+ * digest returns only the messages peer differs in once they agreed on {@link Feature#DIGEST}. Handshake with digest or
+ * watermark also returns recently seen peers once they agreed on {@link Feature#PEERS}, the cached full history does
+ * not carry them.
+ */
+class MessagingSession {
+    private static final Logger log = LoggerFactory.getLogger(MessagingSession.class);
+
+    // serialized history cache key prefix, accepted features change the response
+    private static final String HELLO_FORMAT = "hello-";
+    // keeps handshake response small in large clusters
+    private static final int MAX_PEERS = 64;
+
+    private final MessagesManager msgMgr;
+    private final PeerManager peerMgr;
+    private final Set<Feature> features;
+    private final String address;
+    private final int port;
+
+    private Command expectedCommand = Command.HELLO;
+    private boolean binary;
+    private boolean batch;
+    private boolean closed;
+
+    /**
+     * @param msgMgr
+     *            messaging manager {@see MessagesManager}
+     * @param peerMgr
+     *            peer manager {@see PeerManager} to share known peers from, null to share none
+     * @param features
+     *            protocol features server accepts
+     * @param address
+     *            remote peer IP address
+     * @param port
+     *            remote peer port
+     */
+    MessagingSession(MessagesManager msgMgr, PeerManager peerMgr, Set<Feature> features, String address, int port) {
+        this.msgMgr = msgMgr;
+        this.peerMgr = peerMgr;
+        this.features = features;
+        this.address = address;
+        this.port = port;
+    }
+
+    /**
+     * Process single request and generate response. Session is closed after the failed request.
+     *
+     * @param payload
+     *            request JSON line or binary frame payload
+     * @param binaryPayload
+     *            true if request was received as binary frame
+     *
+     * @return encoded response line or frame
+     */
+    byte[] process(byte[] payload, boolean binaryPayload) {
+        String requestMsg = binaryPayload ? String.format("of %s bytes", payload.length)
+                : new String(payload, StandardCharsets.UTF_8);
+        log.info("Received message {} from {}:{}", requestMsg, address, port);
+        Response response;
+        try {
+            Request request = binaryPayload ? JsonUtil.fromSmile(payload, Request.class)
+                    : JsonUtil.fromJson(requestMsg, Request.class);
+            String peerId = request.peerId();
+            Command command = request.command();
+            if (request.command() == null) {
+                throw new IllegalArgumentException(String.format("Missing command in the request %s", requestMsg));
+            }
+            // repeated handshake starts a new exchange round on the same connection
+            if (expectedCommand != command && command != Command.HELLO
+                    && !(batch && expectedCommand == Command.NEW_MESSAGE && command == Command.NEW_MESSAGES)) {
+                throw new IllegalArgumentException(String.format("Expected command '%s' but received '%s'",
+                        expectedCommand.value(), command.value()));
+            }
+            switch (command) {
+            case HELLO:
+                if (peerId != null) {
+                    Long sinceId = request.sinceId();
+                    List<Feature> accepted = negotiate(request.features());
+                    expectedCommand = Command.NEW_MESSAGE;
+                    if (request.digest() != null && accepted != null && accepted.contains(Feature.DIGEST)) {
+                        // peers in sync exchange only the digest
+                        response = Response.builder(Status.OK)
+                                .messages(msgMgr.getMismatchedMessages(request.digest())).features(accepted)
+                                .peers(recentPeers(accepted)).build();
+                    } else if (sinceId == null) {
+                        // full history is serialized once per history version and format
+                        byte[] encoded = msgMgr.getSerializedMessages(HELLO_FORMAT + accepted, messages -> encode(
+                                Response.builder(Status.OK).messages(messages).features(accepted).build())).bytes();
+                        log.debug("Returning full history of {} bytes to {}:{}", encoded.length, address, port);
+                        return encoded;
+                    } else {
+                        // peers sending watermark get only messages they don't have yet
+                        response = Response.builder(Status.OK).messages(msgMgr.getMessages(sinceId))
+                                .features(accepted).peers(recentPeers(accepted)).build();
+                    }
+                } else {
+                    throw new IllegalArgumentException(String.format("Missing peer_id in request %s", requestMsg));
+                }
+                break;
+            case NEW_MESSAGE:
+                if (peerId != null && request.message() != null) {
+                    // stored under the sender's id and not queued again, so peers do not pass it around
+                    // under new ids
+                    long id = request.messageId() != null ? request.messageId() : msgMgr.nextId();
+                    msgMgr.addMessage(id, peerId, request.message());
+                    response = new Response(Status.OK, null, null, null);
+                } else {
+                    throw new IllegalArgumentException(
+                            String.format("Missing peer_id or message in request %s", requestMsg));
+                }
+                break;
+            case NEW_MESSAGES:
+                if (peerId != null && request.messages() != null) {
+                    response = Response.builder(Status.OK).statuses(addMessages(request.messages())).build();
+                } else {
+                    throw new IllegalArgumentException(
+                            String.format("Missing peer_id or messages in request %s", requestMsg));
+                }
+                break;
+            case UNKNOWN:
+            default:
+                throw new IllegalArgumentException(String.format("Invalid request %s", requestMsg));
+            }
+        } catch (Exception e) {
+            String msg = String.format("Failed to process message exchange %s", requestMsg);
+            log.warn(msg, e);
+            response = new Response(Status.ERROR, null, e.getMessage(), null);
+            closed = true;
+        }
+        byte[] encoded = encode(response);
+        log.debug("Returning response {} of {} bytes to {}:{}", response.status(), encoded.length, address, port);
+        return encoded;
+    }
+
+    /**
+     * Store batch of messages under their ids, so all peers keep the same id for the message.
+     *
+     * @param messages
+     *            received messages
+     *
+     * @return status of every message, error for the incomplete ones
+     */
+    private Map<Long, Status> addMessages(Map<Long, Message> messages) {
+        Map<Long, Status> statuses = new LinkedHashMap<>();
+        for (Map.Entry<Long, Message> entry : messages.entrySet()) {
+            Message message = entry.getValue();
+            if (entry.getKey() == null || message == null || message.peerId() == null || message.message() == null) {
+                statuses.put(entry.getKey(), Status.ERROR);
+                continue;
+            }
+            msgMgr.addMessage(entry.getKey(), message.peerId(), message.message());
+            statuses.put(entry.getKey(), Status.OK);
+        }
+        log.debug("Stored batch of {} messages from {}:{}", messages.size(), address, port);
+        return statuses;
+    }
+
+    /**
+     * @param accepted
+     *            accepted features
+     *
+     * @return recently seen peers if peer list was negotiated, null otherwise
+     */
+    private List<PeerInfo> recentPeers(List<Feature> accepted) {
+        if (peerMgr == null || accepted == null || !accepted.contains(Feature.PEERS)) {
+            return null;
+        }
+        return peerMgr.getRecentPeers(MAX_PEERS);
+    }
+
+    /**
+     * @param response
+     *            response
+     *
+     * @return response encoded as binary frame if negotiated, as JSON line otherwise
+     */
+    private byte[] encode(Response response) {
+        return binary ? WireStream.frame(JsonUtil.toSmile(response)) : WireStream.line(JsonUtil.toJson(response));
+    }
+
+    /**
+     * Accept requested features supported by this server. Peers not requesting any feature (older peers) keep using
+     * JSON lines.
+     *
+     * @param requested
+     *            features requested by the peer
+     *
+     * @return accepted features, null if none
+     */
+    private List<Feature> negotiate(List<Feature> requested) {
+        if (requested == null) {
+            binary = false;
+            batch = false;
+            return null;
+        }
+        List<Feature> accepted = requested.stream().filter(features::contains).distinct().toList();
+        binary = accepted.contains(Feature.SMILE);
+        batch = accepted.contains(Feature.BATCH);
+        return accepted.isEmpty() ? null : accepted;
+    }
+
+    /**
+     * @return true if session should not process any other request
+     */
+    boolean isClosed() {
+        return closed;
+    }
+}
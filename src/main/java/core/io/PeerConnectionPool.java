@@ -0,0 +1,258 @@
+package core.io;
+
+import core.model.Peer;
+import core.model.Request;
+import core.model.Response;
+import core.util.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps long-lived connections to the peers, so message exchange rounds do not pay TCP connection setup and teardown
+ * for every peer. Connection is checked out exclusively by {@link PeerConnectionPool#acquire(Peer, int, int)} and
+ * returned by {@link PeerConnectionPool#release(Peer, PeerConnection)}.
+ */
+class PeerConnectionPool {
+    private static final Logger log = LoggerFactory.getLogger(PeerConnectionPool.class);
+
+    private final Map<Peer, PeerConnection> idle = new ConcurrentHashMap<>();
+    private final Set<Peer> notReusable = ConcurrentHashMap.newKeySet();
+    private final long maxIdleMs;
+
+    /**
+     * @param maxIdleMs
+     *            how long connection may stay unused before it is closed, 0 to disable pooling
+     */
+    PeerConnectionPool(long maxIdleMs) {
+        this.maxIdleMs = maxIdleMs;
+    }
+
+    /**
+     * Take healthy pooled connection to the peer or open a new one, with timeouts adapted to the peer.
+     *
+     * @param peer
+     *            peer
+     * @param connectTimeoutMs
+     *            connection timeout in milliseconds
+     * @param readTimeoutMs
+     *            response wait timeout in milliseconds
+     *
+     * @return connection owned by the caller until released
+     *
+     * @throws IOException
+     *             if connection cannot be opened
+     */
+    PeerConnection acquire(Peer peer, int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        PeerConnection connection = idle.remove(peer);
+        if (connection != null) {
+            if (connection.isHealthy(maxIdleMs)) {
+                log.debug("Reusing connection to peer {} {}:{}", peer.peerId(), peer.ipAddress(), peer.port());
+                connection.setReadTimeout(readTimeoutMs);
+                return connection;
+            }
+            connection.close();
+        }
+        return open(peer, connectTimeoutMs, readTimeoutMs);
+    }
+
+    /**
+     * Open new connection to the peer bypassing the pool.
+     *
+     * @param peer
+     *            peer
+     * @param connectTimeoutMs
+     *            connection timeout in milliseconds
+     * @param readTimeoutMs
+     *            response wait timeout in milliseconds
+     *
+     * @return new connection
+     *
+     * @throws IOException
+     *             if connection cannot be opened
+     */
+    PeerConnection open(Peer peer, int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        log.debug("Opening connection to peer {} {}:{}", peer.peerId(), peer.ipAddress(), peer.port());
+        return new PeerConnection(peer, connectTimeoutMs, readTimeoutMs);
+    }
+
+    /**
+     * Return connection to the pool after successful exchange.
+     *
+     * @param peer
+     *            peer
+     * @param connection
+     *            connection acquired for the peer
+     */
+    void release(Peer peer, PeerConnection connection) {
+        if (maxIdleMs <= 0 || notReusable.contains(peer)) {
+            connection.close();
+            return;
+        }
+        connection.touch();
+        PeerConnection previous = idle.put(peer, connection);
+        if (previous != null && previous != connection) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Stop pooling connections to the peer, which does not support more than one exchange per connection.
+     *
+     * @param peer
+     *            peer
+     */
+    void disableReuse(Peer peer) {
+        log.info("Peer {} {}:{} does not support connection reuse", peer.peerId(), peer.ipAddress(), peer.port());
+        notReusable.add(peer);
+        evict(peer);
+    }
+
+    /**
+     * Close pooled connection to the peer, e.g. when peer expired.
+     *
+     * @param peer
+     *            peer
+     */
+    void evict(Peer peer) {
+        PeerConnection connection = idle.remove(peer);
+        if (connection != null) {
+            log.debug("Evicting connection to peer {} {}:{}", peer.peerId(), peer.ipAddress(), peer.port());
+            connection.close();
+        }
+    }
+
+    /**
+     * Close all pooled connections.
+     */
+    void closeAll() {
+        for (Peer peer : idle.keySet()) {
+            evict(peer);
+        }
+    }
+
+    /**
+     * Connection to the peer sending JSON lines or, once negotiated, binary frames.
+     */
+    static class PeerConnection {
+        private final Socket socket;
+        private final WireStream wire;
+        private boolean binary;
+        private boolean reused;
+        private long lastUsedMs;
+        private long connectMs;
+
+        PeerConnection(Peer peer, int connectTimeoutMs, int readTimeoutMs) throws IOException {
+            this.socket = new Socket();
+            try {
+                long start = System.nanoTime();
+                socket.connect(new InetSocketAddress(peer.ipAddress(), peer.port()), connectTimeoutMs);
+                this.connectMs = (System.nanoTime() - start) / 1_000_000;
+                socket.setSoTimeout(readTimeoutMs);
+                this.wire = new WireStream(socket.getInputStream(), socket.getOutputStream());
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            this.lastUsedMs = System.currentTimeMillis();
+        }
+
+        /**
+         * Send request in the format agreed with the peer.
+         *
+         * @param request
+         *            request
+         *
+         * @throws IOException
+         *             if request cannot be sent
+         */
+        void send(Request request) throws IOException {
+            wire.write(binary ? WireStream.frame(JsonUtil.toSmile(request))
+                    : WireStream.line(JsonUtil.toJson(request)));
+        }
+
+        /**
+         * Receive response, format is detected by the response itself.
+         *
+         * @return response, null if connection was closed by the peer
+         *
+         * @throws IOException
+         *             if response cannot be read
+         */
+        Response receive() throws IOException {
+            WireStream.Payload payload = wire.read();
+            if (payload == null) {
+                return null;
+            }
+            return payload.binary() ? JsonUtil.fromSmile(payload.bytes(), Response.class)
+                    : JsonUtil.fromJson(new String(payload.bytes(), StandardCharsets.UTF_8), Response.class);
+        }
+
+        /**
+         * @param binary
+         *            true if peer accepted binary frames
+         */
+        void setBinary(boolean binary) {
+            this.binary = binary;
+        }
+
+        /**
+         * @param readTimeoutMs
+         *            response wait timeout in milliseconds
+         *
+         * @throws IOException
+         *             if socket is closed
+         */
+        void setReadTimeout(int readTimeoutMs) throws IOException {
+            socket.setSoTimeout(readTimeoutMs);
+        }
+
+        /**
+         * @return time the connection took to set up in milliseconds
+         */
+        long getConnectMs() {
+            return connectMs;
+        }
+
+        /**
+         * @return true if connection was already used for the previous exchange
+         */
+        boolean isReused() {
+            return reused;
+        }
+
+        void touch() {
+            reused = true;
+            lastUsedMs = System.currentTimeMillis();
+        }
+
+        /**
+         * Cheap local health check, connection closed by the peer is detected only by the next exchange.
+         */
+        boolean isHealthy(long maxIdleMs) {
+            try {
+                return socket.isConnected() && !socket.isClosed() && !socket.isInputShutdown()
+                        && !socket.isOutputShutdown() && System.currentTimeMillis() - lastUsedMs <= maxIdleMs
+                        // peer must not send anything between exchanges, unexpected data means broken protocol state
+                        && !wire.ready();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (Exception e) {
+                // do nothing
+            }
+        }
+    }
+}
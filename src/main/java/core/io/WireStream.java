@@ -0,0 +1,160 @@
+package core.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Peer messaging stream carrying both JSON lines and binary frames. Binary frame starts with the
+ * {@link WireStream#FRAME_MARKER} byte followed by the payload length (4 bytes, big-endian) and the payload. JSON line
+ * never starts with the marker byte, so the format of every incoming message is detected by its first byte and peers
+ * not supporting binary frames keep using plain JSON lines.
+ */
+class WireStream {
+
+    /**
+     * First byte of the binary frame.
+     */
+    static final byte FRAME_MARKER = 0;
+
+    /**
+     * Binary frame header length, marker byte and payload length.
+     */
+    static final int FRAME_HEADER_LENGTH = 5;
+
+    /**
+     * Maximal accepted line or frame payload length.
+     */
+    static final int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+
+    private final DataInputStream in;
+    private final OutputStream out;
+
+    /**
+     * Received line or frame.
+     *
+     * @param bytes
+     *            line without line separator or frame payload
+     * @param binary
+     *            true if received as binary frame
+     */
+    record Payload(byte[] bytes, boolean binary) {
+    }
+
+    /**
+     * @param in
+     *            connection input stream
+     * @param out
+     *            connection output stream
+     */
+    WireStream(InputStream in, OutputStream out) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.out = new BufferedOutputStream(out);
+    }
+
+    /**
+     * Read next line or frame.
+     *
+     * @return received payload, null if connection was closed
+     *
+     * @throws IOException
+     *             if payload cannot be read or exceeds {@link WireStream#MAX_PAYLOAD_LENGTH}
+     */
+    Payload read() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        if (first == FRAME_MARKER) {
+            int length = in.readInt();
+            checkLength(length);
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new Payload(bytes, true);
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        int b = first;
+        while (b >= 0 && b != '\n') {
+            line.write(b);
+            checkLength(line.size());
+            b = in.read();
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new Payload(length == bytes.length ? bytes : Arrays.copyOf(bytes, length), false);
+    }
+
+    /**
+     * Write already encoded line or frame, see {@link WireStream#line(String)} and {@link WireStream#frame(byte[])}.
+     *
+     * @param encoded
+     *            encoded line or frame
+     *
+     * @throws IOException
+     *             if write failed
+     */
+    void write(byte[] encoded) throws IOException {
+        out.write(encoded);
+        out.flush();
+    }
+
+    /**
+     * @return true if there are unread bytes already received
+     *
+     * @throws IOException
+     *             if stream is closed
+     */
+    boolean ready() throws IOException {
+        return in.available() > 0;
+    }
+
+    /**
+     * Encode text line.
+     *
+     * @param line
+     *            line without line separator
+     *
+     * @return encoded line
+     */
+    static byte[] line(String line) {
+        return (line + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encode binary frame.
+     *
+     * @param payload
+     *            frame payload
+     *
+     * @return encoded frame
+     */
+    static byte[] frame(byte[] payload) {
+        byte[] frame = new byte[FRAME_HEADER_LENGTH + payload.length];
+        frame[0] = FRAME_MARKER;
+        frame[1] = (byte) (payload.length >>> 24);
+        frame[2] = (byte) (payload.length >>> 16);
+        frame[3] = (byte) (payload.length >>> 8);
+        frame[4] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, FRAME_HEADER_LENGTH, payload.length);
+        return frame;
+    }
+
+    /**
+     * @param length
+     *            line or frame payload length
+     *
+     * @throws IOException
+     *             if length is not accepted
+     */
+    static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            throw new IOException(String.format("Request exceeds %s bytes", MAX_PAYLOAD_LENGTH));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package core.manager;
+
+import core.model.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Compact digest of the message history for anti-entropy exchange, see {@link MessagesManager#getDigest()}. Messages
+ * are split into {@link HistoryDigest#BUCKETS} buckets by id time stamp and every bucket hash combines hashes of its
+ * messages, so peers find the buckets they differ in without sending the messages.
+ *
+ * @param version
+ *            history version the digest was computed from
+ * @param buckets
+ *            hash of every non-empty bucket by bucket index
+ */
+public record HistoryDigest(long version, Map<Integer, Long> buckets) {
+
+    /**
+     * Count of the digest buckets.
+     */
+    public static final int BUCKETS = 16;
+
+    // messages created within about a minute share the bucket
+    private static final int BUCKET_SHIFT = 16;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Compute digest of the messages.
+     *
+     * @param version
+     *            history version of the messages
+     * @param messages
+     *            messages by id
+     *
+     * @return history digest
+     */
+    static HistoryDigest of(long version, Map<Long, Message> messages) {
+        Map<Integer, Long> buckets = new HashMap<>();
+        for (Map.Entry<Long, Message> entry : messages.entrySet()) {
+            // XOR does not depend on the order messages were stored in
+            buckets.merge(bucket(entry.getKey()), hash(entry.getKey(), entry.getValue()), (a, b) -> a ^ b);
+        }
+        return new HistoryDigest(version, Collections.unmodifiableMap(buckets));
+    }
+
+    /**
+     * @param id
+     *            message id
+     *
+     * @return index of the bucket the message belongs to
+     */
+    public static int bucket(long id) {
+        return (int) ((IdGenerator.timestampOf(id) >>> BUCKET_SHIFT) & (BUCKETS - 1));
+    }
+
+    /**
+     * Find buckets this history has different messages in than the other one.
+     *
+     * @param other
+     *            other peer digest buckets, null if the other peer has no messages
+     *
+     * @return indexes of the non-empty buckets of this digest not matching the other digest
+     */
+    public Set<Integer> mismatched(Map<Integer, Long> other) {
+        Set<Integer> mismatched = new HashSet<>();
+        for (Map.Entry<Integer, Long> entry : buckets.entrySet()) {
+            if (other == null || !Objects.equals(entry.getValue(), other.get(entry.getKey()))) {
+                mismatched.add(entry.getKey());
+            }
+        }
+        return mismatched;
+    }
+
+    private static long hash(long id, Message message) {
+        // 64-bit FNV-1a of the message fields
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = (hash ^ ((id >>> (i * 8)) & 0xff)) * FNV_PRIME;
+        }
+        hash = hash(hash, message.peerId());
+        hash = hash(hash, message.message());
+        // final avalanche, so similar messages do not cancel each other out with XOR
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+            }
+        }
+        // separator keeps field boundaries, ("ab", "c") and ("a", "bc") differ
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+}
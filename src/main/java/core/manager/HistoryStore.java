@@ -0,0 +1,62 @@
+package core.manager;
+
+/**
+ * Message history storage implementations.
+ */
+public enum HistoryStore {
+
+    /**
+     * Concurrent skip list, writers never block each other.
+     */
+    SKIP_LIST("skiplist"),
+    /**
+     * Pre-sized ring of primitive ids, no allocation on eviction and lower heap use for large history limits.
+     */
+    RING("ring");
+
+    private String value;
+
+    HistoryStore(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Resolve storage from the property value.
+     *
+     * @param value
+     *            storage string representation
+     *
+     * @return enum value, {@link HistoryStore#SKIP_LIST} if value is not defined
+     */
+    public static HistoryStore fromString(String value) {
+        if (value == null || value.isBlank()) {
+            return SKIP_LIST;
+        }
+        for (HistoryStore item : values()) {
+            if (item.value.equalsIgnoreCase(value.trim())) {
+                return item;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unexpected history store %s", value));
+    }
+
+    public String value() {
+        return value;
+    }
+
+    /**
+     * @param limit
+     *            messages history limit
+     *
+     * @return new empty history
+     */
+    MessageHistory create(int limit) {
+        switch (this) {
+        case RING:
+            return new RingHistory(limit);
+        case SKIP_LIST:
+        default:
+            return new SkipListHistory(limit);
+        }
+    }
+}
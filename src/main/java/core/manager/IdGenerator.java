@@ -0,0 +1,31 @@
+package core.manager;
+
+/**
+ * Generator of the time-ordered ids of the new messages, see {@link IdGeneratorType}. Ids are generated without
+ * coordination with other peers and never repeat within the generator.
+ */
+public interface IdGenerator {
+
+    /**
+     * Ids below the limit are plain millisecond time stamps, generated by {@link MonotonicIdGenerator} or by peers
+     * before {@link SnowflakeIdGenerator} was introduced.
+     */
+    long MILLISECOND_ID_LIMIT = 1L << 42;
+
+    /**
+     * @return next message id, greater than all ids generated before
+     */
+    long nextId();
+
+    /**
+     * Extract time the message id was generated at, for ids of any generator.
+     *
+     * @param id
+     *            message id
+     *
+     * @return time in milliseconds since epoch
+     */
+    static long timestampOf(long id) {
+        return id < MILLISECOND_ID_LIMIT ? id : SnowflakeIdGenerator.timestampOf(id);
+    }
+}
@@ -0,0 +1,63 @@
+package core.manager;
+
+/**
+ * Message id generator implementations.
+ */
+public enum IdGeneratorType {
+
+    /**
+     * Time stamp, node and sequence ids, unique across peers with unique nodes, see {@link SnowflakeIdGenerator}. Ids
+     * sort above {@link IdGeneratorType#MONOTONIC} ids, so peers using the other generator lose their messages first.
+     */
+    SNOWFLAKE("snowflake"),
+    /**
+     * Millisecond time stamp ids, unique within the peer only, see {@link MonotonicIdGenerator}.
+     */
+    MONOTONIC("monotonic");
+
+    private String value;
+
+    IdGeneratorType(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Resolve generator from the property value.
+     *
+     * @param value
+     *            generator string representation
+     *
+     * @return enum value, {@link IdGeneratorType#MONOTONIC} if value is not defined
+     */
+    public static IdGeneratorType fromString(String value) {
+        if (value == null || value.isBlank()) {
+            return MONOTONIC;
+        }
+        for (IdGeneratorType item : values()) {
+            if (item.value.equalsIgnoreCase(value.trim())) {
+                return item;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unexpected id generator %s", value));
+    }
+
+    public String value() {
+        return value;
+    }
+
+    /**
+     * @param node
+     *            node id unique within the network, used by {@link IdGeneratorType#SNOWFLAKE} only
+     *
+     * @return new generator
+     */
+    public IdGenerator create(int node) {
+        switch (this) {
+        case MONOTONIC:
+            return new MonotonicIdGenerator();
+        case SNOWFLAKE:
+        default:
+            return new SnowflakeIdGenerator(node);
+        }
+    }
+}
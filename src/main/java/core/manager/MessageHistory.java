@@ -0,0 +1,57 @@
+package core.manager;
+
+import core.model.Message;
+
+import java.util.Map;
+
+/**
+ * Bounded, id ordered message history storage of the {@link MessagesManager}. Implementations are safe to use from
+ * multiple threads and return consistent read-only snapshots.
+ */
+interface MessageHistory {
+
+    /**
+     * Store message, replacing message with the same id and evicting the oldest messages above the limit.
+     *
+     * @param id
+     *            message id
+     * @param message
+     *            message
+     *
+     * @return true if history was changed, false if the same message was stored already or message is older than
+     *         full history
+     */
+    boolean put(long id, Message message);
+
+    /**
+     * @return all messages ordered by id
+     */
+    Map<Long, Message> snapshot();
+
+    /**
+     * @param sinceId
+     *            exclusive lower bound of message id
+     *
+     * @return messages with id greater than given one ordered by id
+     */
+    Map<Long, Message> snapshotSince(long sinceId);
+
+    /**
+     * @param sinceId
+     *            exclusive lower bound of message id
+     * @param beforeId
+     *            exclusive upper bound of message id
+     * @param limit
+     *            maximal amount of returned messages
+     * @param newest
+     *            true to return the newest messages of the range if it exceeds the limit, the oldest ones otherwise
+     *
+     * @return messages of the range ordered by id
+     */
+    Map<Long, Message> range(long sinceId, long beforeId, int limit, boolean newest);
+
+    /**
+     * @return amount of stored messages
+     */
+    int size();
+}
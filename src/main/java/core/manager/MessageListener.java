@@ -0,0 +1,20 @@
+package core.manager;
+
+import core.model.Message;
+
+/**
+ * Listener of the message history changes, see {@link MessagesManager#addListener(MessageListener)}.
+ */
+@FunctionalInterface
+public interface MessageListener {
+
+    /**
+     * Called by the thread storing the message once it is visible in the history, so it must not block.
+     *
+     * @param id
+     *            message id
+     * @param message
+     *            stored message
+     */
+    void onMessage(long id, Message message);
+}
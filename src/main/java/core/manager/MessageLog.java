@@ -0,0 +1,291 @@
+package core.manager;
+
+import core.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Append-only message log in memory-mapped segment files, used to restore message history after restart. Each record
+ * is written as length prefix followed by id, peer id and message. Length is written last, so partially written
+ * record is never read back. Messages arrive in any id order and may be replaced, while history keeps the latest
+ * message of the history limit newest ids only, so segment is deleted once it holds none of those latest messages.
+ */
+public class MessageLog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MessageLog.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int NULL_LENGTH = -1;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int messagesLimit;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    // segment holding the latest message of every of the history limit newest ids
+    private final TreeMap<Long, Segment> latest = new TreeMap<>();
+    private long records;
+
+    /**
+     * Open existing segments or create the directory.
+     *
+     * @param dir
+     *            segments directory
+     * @param segmentBytes
+     *            segment file size
+     * @param messagesLimit
+     *            messages history limit
+     */
+    public MessageLog(String dir, int segmentBytes, int messagesLimit) {
+        this.dir = Paths.get(dir);
+        this.segmentBytes = segmentBytes;
+        this.messagesLimit = messagesLimit;
+        try {
+            Files.createDirectories(this.dir);
+            for (Path path : listSegments()) {
+                Segment segment = new Segment(path, sequence(path), 0);
+                segment.forEachId(id -> track(id, segment));
+                segments.add(segment);
+                records += segment.records;
+            }
+        } catch (IOException e) {
+            String msg = String.format("Unable to open message log in %s", dir);
+            log.error(msg, e);
+            throw new RuntimeException(msg, e);
+        }
+        log.info("Opened message log with {} messages in {} segments in {}", records, segments.size(), dir);
+    }
+
+    /**
+     * Read all stored messages from the oldest to the newest.
+     *
+     * @param consumer
+     *            message id and message consumer
+     */
+    public synchronized void replay(BiConsumer<Long, Message> consumer) {
+        for (Segment segment : segments) {
+            MappedByteBuffer buffer = segment.buffer;
+            int pos = 0;
+            while (pos < buffer.position()) {
+                int length = buffer.getInt(pos);
+                int offset = pos + Integer.BYTES;
+                long id = buffer.getLong(offset);
+                offset += Long.BYTES;
+                String peerId = readString(buffer, offset);
+                offset += Integer.BYTES + Math.max(0, buffer.getInt(offset));
+                String message = readString(buffer, offset);
+                consumer.accept(id, new Message(peerId, message));
+                pos += Integer.BYTES + length;
+            }
+        }
+    }
+
+    /**
+     * Append message to the newest segment, rolling new segment if it does not fit.
+     *
+     * @param id
+     *            message id
+     * @param message
+     *            message
+     */
+    public synchronized void append(long id, Message message) {
+        byte[] peerId = toBytes(message.peerId());
+        byte[] text = toBytes(message.message());
+        int length = Long.BYTES + Integer.BYTES + (peerId != null ? peerId.length : 0) + Integer.BYTES
+                + (text != null ? text.length : 0);
+        try {
+            Segment segment = segments.peekLast();
+            if (segment == null || segment.buffer.remaining() < Integer.BYTES + length) {
+                segment = roll(Integer.BYTES + length);
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            int pos = buffer.position();
+            buffer.position(pos + Integer.BYTES);
+            buffer.putLong(id);
+            writeBytes(buffer, peerId);
+            writeBytes(buffer, text);
+            // commit record
+            buffer.putInt(pos, length);
+            segment.records++;
+            records++;
+            track(id, segment);
+            retain();
+        } catch (IOException e) {
+            log.error("Unable to append message {} to the message log in {}", id, dir, e);
+        }
+    }
+
+    /**
+     * Flush written records to the disk.
+     */
+    @Override
+    public synchronized void close() {
+        Segment segment = segments.peekLast();
+        if (segment != null) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Create new segment large enough for the record.
+     */
+    private Segment roll(int recordBytes) throws IOException {
+        Segment last = segments.peekLast();
+        if (last != null) {
+            last.buffer.force();
+        }
+        long sequence = last != null ? last.sequence + 1 : 1;
+        Path path = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, sequence, Math.max(segmentBytes, recordBytes));
+        segments.add(segment);
+        log.debug("Rolled message log segment {}", path);
+        return segment;
+    }
+
+    /**
+     * Track segment of the logged message, if its id is one of the history limit newest ones. Message logged before
+     * with the same id is replaced, message with the oldest id is evicted as history does.
+     */
+    private void track(long id, Segment segment) {
+        if (messagesLimit <= 0) {
+            return;
+        }
+        if (!latest.containsKey(id) && latest.size() >= messagesLimit) {
+            if (id < latest.firstKey()) {
+                return;
+            }
+            latest.pollFirstEntry().getValue().live--;
+        }
+        Segment previous = latest.put(id, segment);
+        if (previous != null) {
+            previous.live--;
+        }
+        segment.live++;
+    }
+
+    /**
+     * Delete segments holding no message history would keep, the newest segment is kept for appending.
+     */
+    private void retain() throws IOException {
+        Segment last = segments.peekLast();
+        for (Iterator<Segment> iterator = segments.iterator(); iterator.hasNext();) {
+            Segment segment = iterator.next();
+            if (segment != last && segment.live == 0) {
+                iterator.remove();
+                records -= segment.records;
+                // mapping is released by garbage collector, file can be deleted meanwhile
+                Files.deleteIfExists(segment.path);
+                log.debug("Deleted message log segment {}", segment.path);
+            }
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> paths = new ArrayList<>(files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).toList());
+            paths.sort((p1, p2) -> Long.compare(sequence(p1), sequence(p2)));
+            return paths;
+        }
+    }
+
+    private static long sequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static byte[] toBytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeBytes(MappedByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(NULL_LENGTH);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset);
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(offset + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Memory-mapped segment file, buffer position points to the end of the last committed record.
+     */
+    static class Segment {
+        private final Path path;
+        private final long sequence;
+        private final MappedByteBuffer buffer;
+        private int records;
+        // records holding the latest message of the history limit newest ids
+        private int live;
+
+        /**
+         * Map existing segment or create new one.
+         *
+         * @param size
+         *            new file size, 0 to map existing file
+         */
+        Segment(Path path, long sequence, int size) throws IOException {
+            this.path = path;
+            this.sequence = sequence;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                // mapping stays valid after the channel is closed
+                this.buffer = channel.map(MapMode.READ_WRITE, 0, size > 0 ? size : channel.size());
+            }
+            // find the end of committed records, unused space is zero filled
+            int pos = 0;
+            while (buffer.limit() - pos >= Integer.BYTES) {
+                int length = buffer.getInt(pos);
+                if (length <= 0 || length > buffer.limit() - pos - Integer.BYTES) {
+                    break;
+                }
+                records++;
+                pos += Integer.BYTES + length;
+            }
+            buffer.position(pos);
+        }
+
+        /**
+         * @param consumer
+         *            consumer of the committed record ids from the oldest to the newest
+         */
+        void forEachId(LongConsumer consumer) {
+            int pos = 0;
+            while (pos < buffer.position()) {
+                consumer.accept(buffer.getLong(pos + Integer.BYTES));
+                pos += Integer.BYTES + buffer.getInt(pos);
+            }
+        }
+    }
+}
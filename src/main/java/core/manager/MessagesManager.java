@@ -4,26 +4,96 @@ import core.model.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
- * Holds message history and provides API to add message and retrieve messages, ordered by Id (which is time-stamped).
+ * Holds message history and provides API to add message and retrieve messages, ordered by Id (which is time-stamped,
+ * see {@link IdGenerator}).
+ * Safe to use from multiple threads: writes do not block each other and readers get consistent snapshots. Every
+ * history change increments the history version, so serialized history can be reused until the next change. Changes
+ * are pushed to {@link MessageListener}s and wake up threads waiting in
+ * {@link MessagesManager#awaitChange(long, long)}.
  */
 public class MessagesManager {
     private static final Logger log = LoggerFactory.getLogger(MessagesManager.class);
-    private TreeMap<Long, Message> messagesMap = new TreeMap<>();
-    private TreeMap<Long, Message> newMessagesMap = new TreeMap<>();
 
-    private int messagesLimit;
+    private final MessageHistory messages;
+    private final MessageLog messageLog;
+    private final ConcurrentSkipListMap<Long, Message> newMessagesMap = new ConcurrentSkipListMap<>();
+    private final AtomicLong version = new AtomicLong();
+    // time of the last change, history ids do not tell when older messages arrived
+    private volatile long modifiedMs = System.currentTimeMillis();
+    private final Map<String, SerializedHistory> serializedCache = new ConcurrentHashMap<>();
+    private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
+    // writers notify the monitor only if someone waits, so they do not contend on it otherwise
+    private final Object changeMonitor = new Object();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private volatile HistoryDigest digest = new HistoryDigest(-1, Map.of());
+    private final IdGenerator idGenerator;
 
     /**
      * @param messagesLimit
      *            messages history limit
      */
     public MessagesManager(int messagesLimit) {
-        this.messagesLimit = messagesLimit;
+        this(messagesLimit, HistoryStore.SKIP_LIST, null);
+    }
+
+    /**
+     * @param messagesLimit
+     *            messages history limit
+     * @param store
+     *            messages history storage
+     */
+    public MessagesManager(int messagesLimit, HistoryStore store) {
+        this(messagesLimit, store, null);
+    }
+
+    /**
+     * @param messagesLimit
+     *            messages history limit
+     * @param store
+     *            messages history storage
+     * @param messageLog
+     *            persistent message log to restore history from and to append messages to, null to keep history in
+     *            memory only
+     */
+    public MessagesManager(int messagesLimit, HistoryStore store, MessageLog messageLog) {
+        this(messagesLimit, store, messageLog, new MonotonicIdGenerator());
+    }
+
+    /**
+     * @param messagesLimit
+     *            messages history limit
+     * @param store
+     *            messages history storage
+     * @param messageLog
+     *            persistent message log to restore history from and to append messages to, null to keep history in
+     *            memory only
+     * @param idGenerator
+     *            generator of the new message ids
+     */
+    public MessagesManager(int messagesLimit, HistoryStore store, MessageLog messageLog, IdGenerator idGenerator) {
+        this.messages = store.create(messagesLimit);
+        this.messageLog = messageLog;
+        this.idGenerator = idGenerator;
+        if (messageLog != null) {
+            messageLog.replay(messages::put);
+            log.info("Restored {} messages from the message log", messages.size());
+        }
     }
 
     /**
@@ -38,11 +108,110 @@ public class MessagesManager {
      */
     public void addMessage(long id, String peerId, String message) {
         log.debug("Store message with id {} from peer {}", id, peerId);
-        messagesMap.put(id, new Message(peerId, message));
-        while (messagesMap.size() >= messagesLimit) {
-            log.debug("Removing message {} to meet limit {}", messagesMap.size(), messagesLimit);
-            messagesMap.pollFirstEntry();
+        store(id, new Message(peerId, message), false);
+    }
+
+    /**
+     * @param id
+     *            message id
+     * @param msg
+     *            message
+     * @param queue
+     *            true to queue the message as a new one to be sent to the peers
+     */
+    private void store(long id, Message msg, boolean queue) {
+        // persist only changes, peers send the same messages again with every full sync
+        if (messages.put(id, msg)) {
+            if (queue) {
+                // queued before listeners are notified, so they already see it as a new message
+                newMessagesMap.put(id, msg);
+            }
+            // version is incremented after the change is visible, so snapshot taken after reading the version
+            // always contains all changes counted by it, the same applies to the modification time
+            modifiedMs = System.currentTimeMillis();
+            version.incrementAndGet();
+            if (messageLog != null) {
+                messageLog.append(id, msg);
+            }
+            notifyChange(id, msg);
+        }
+    }
+
+    /**
+     * Register listener of the stored messages.
+     *
+     * @param listener
+     *            listener called for every added or replaced message
+     */
+    public void addListener(MessageListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregister listener of the stored messages.
+     *
+     * @param listener
+     *            listener registered before
+     */
+    public void removeListener(MessageListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Wait until history version differs from the given one.
+     *
+     * @param knownVersion
+     *            version the caller has already seen, see {@link MessagesManager#getVersion()}
+     * @param timeoutMs
+     *            maximal wait time in milliseconds
+     *
+     * @return true if history changed, false if timed out
+     *
+     * @throws InterruptedException
+     *             if waiting thread was interrupted
+     */
+    public boolean awaitChange(long knownVersion, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        waiters.incrementAndGet();
+        try {
+            synchronized (changeMonitor) {
+                // writer increments version before checking waiters, so the change is either seen here or notified
+                while (version.get() == knownVersion) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    changeMonitor.wait(remaining);
+                }
+                return true;
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    private void notifyChange(long id, Message message) {
+        if (waiters.get() > 0) {
+            synchronized (changeMonitor) {
+                changeMonitor.notifyAll();
+            }
         }
+        for (MessageListener listener : listeners) {
+            try {
+                listener.onMessage(id, message);
+            } catch (Exception e) {
+                log.warn("Message listener failed to process message {}", id, e);
+            }
+        }
+    }
+
+    /**
+     * Returns id for the message received without one, e.g. typed by hand into the messaging connection.
+     *
+     * @return new message id
+     */
+    public long nextId() {
+        return idGenerator.nextId();
     }
 
     /**
@@ -54,42 +223,212 @@ public class MessagesManager {
      *            message content
      */
     public void addNewMessage(String peerId, String message) {
-        long id = System.currentTimeMillis();
+        long id = idGenerator.nextId();
         log.debug("Store new message with id {} from peer {}", id, peerId);
-        addMessage(id, peerId, message);
-        newMessagesMap.put(id, new Message(peerId, message));
+        // message rejected by the history is not sent to the peers either
+        store(id, new Message(peerId, message), true);
     }
 
     /**
      * Returns messages.
      *
-     * @return messages map
+     * @return messages map snapshot
      */
     public Map<Long, Message> getMessages() {
-        log.debug("Returning {} messages", messagesMap.size());
-        return messagesMap;
+        Map<Long, Message> messages = this.messages.snapshot();
+        log.debug("Returning {} messages", messages.size());
+        return messages;
+    }
+
+    /**
+     * Returns history version, incremented whenever message is added, replaced or evicted.
+     *
+     * @return history version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns serialized messages. Messages are serialized only if history changed since the last call with the same
+     * format, otherwise the cached bytes are returned, so both servers answering unchanged history pay only for the
+     * byte copy to the socket.
+     *
+     * @param format
+     *            cache key of the serialized form, e.g. media type and envelope
+     * @param serializer
+     *            converts messages snapshot to bytes
+     *
+     * @return serialized messages with the version and the modification time they were serialized from
+     */
+    public SerializedHistory getSerializedMessages(String format,
+            Function<Map<Long, Message>, byte[]> serializer) {
+        // read before the version, so the snapshot never misses a change older than the modification time
+        long currentModifiedMs = modifiedMs;
+        long currentVersion = version.get();
+        SerializedHistory cached = serializedCache.get(format);
+        if (cached != null && cached.version() == currentVersion) {
+            return cached;
+        }
+        // concurrent requests of the same format wait for a single serialization
+        return serializedCache.compute(format, (key, previous) -> {
+            if (previous != null && previous.version() >= currentVersion) {
+                return previous;
+            }
+            Map<Long, Message> messages = getMessages();
+            log.debug("Serializing {} messages of version {} as {}", messages.size(), currentVersion, format);
+            return new SerializedHistory(currentVersion, currentModifiedMs, serializer.apply(messages));
+        });
+    }
+
+    /**
+     * Returns history digest, computed once per history version.
+     *
+     * @return history digest
+     */
+    public HistoryDigest getDigest() {
+        HistoryDigest cached = digest;
+        long currentVersion = version.get();
+        if (cached.version() == currentVersion) {
+            return cached;
+        }
+        // snapshot taken after reading the version contains all changes counted by it
+        HistoryDigest computed = HistoryDigest.of(currentVersion, getMessages());
+        digest = computed;
+        return computed;
+    }
+
+    /**
+     * Returns messages of the digest buckets other peer does not have the same messages in.
+     *
+     * @param other
+     *            other peer digest buckets, see {@link HistoryDigest#buckets()}
+     *
+     * @return messages map snapshot, empty if both histories match
+     */
+    public Map<Long, Message> getMismatchedMessages(Map<Integer, Long> other) {
+        // digest is cached per version, so peers in sync cost neither hashing nor history snapshot
+        Set<Integer> mismatched = getDigest().mismatched(other);
+        Map<Long, Message> result = new LinkedHashMap<>();
+        if (!mismatched.isEmpty()) {
+            // snapshot taken after the digest contains at least the messages it was computed from
+            for (Entry<Long, Message> entry : getMessages().entrySet()) {
+                if (mismatched.contains(HistoryDigest.bucket(entry.getKey()))) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        log.debug("Returning {} messages of {} mismatched digest buckets", result.size(), mismatched.size());
+        return result;
+    }
+
+    /**
+     * Returns messages with id greater than the given one.
+     *
+     * @param sinceId
+     *            exclusive lower bound of message id
+     *
+     * @return messages map snapshot
+     */
+    public Map<Long, Message> getMessages(long sinceId) {
+        Map<Long, Message> messages = this.messages.snapshotSince(sinceId);
+        log.debug("Returning {} messages since {}", messages.size(), sinceId);
+        return messages;
+    }
+
+    /**
+     * Returns page of messages. Page with the lower bound is taken from the oldest messages of the range and its cursor
+     * is the lower bound of the following (newer) page, so clients can keep requesting only messages they don't have
+     * yet. Otherwise, page is taken from the newest messages of the range and its cursor is the upper bound of the
+     * previous (older) page.
+     *
+     * @param sinceId
+     *            exclusive lower bound of message id, null for no bound
+     * @param beforeId
+     *            exclusive upper bound of message id, null for no bound
+     * @param limit
+     *            maximal amount of messages
+     *
+     * @return messages page
+     */
+    public MessagesPage getMessages(Long sinceId, Long beforeId, int limit) {
+        boolean forward = sinceId != null;
+        long from = sinceId != null ? sinceId : Long.MIN_VALUE;
+        long to = beforeId != null ? beforeId : Long.MAX_VALUE;
+        // one more message tells whether there is another page
+        int fetch = limit < Integer.MAX_VALUE ? limit + 1 : limit;
+        Map<Long, Message> range = this.messages.range(from, to, fetch, !forward);
+        boolean more = range.size() > limit;
+        Map<Long, Message> messages = range;
+        if (more) {
+            messages = new LinkedHashMap<>();
+            Iterator<Entry<Long, Message>> it = range.entrySet().iterator();
+            if (!forward) {
+                // the oldest message belongs to the previous page
+                it.next();
+            }
+            while (messages.size() < limit) {
+                Entry<Long, Message> entry = it.next();
+                messages.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Long nextCursor;
+        if (forward) {
+            nextCursor = messages.isEmpty() ? sinceId : lastKey(messages);
+        } else {
+            nextCursor = more ? messages.keySet().iterator().next() : null;
+        }
+        log.debug("Returning {} messages since {} before {}, next cursor {}", messages.size(), sinceId, beforeId,
+                nextCursor);
+        return new MessagesPage(Collections.unmodifiableMap(messages), nextCursor);
+    }
+
+    private Long lastKey(Map<Long, Message> messages) {
+        Long last = null;
+        for (Long id : messages.keySet()) {
+            last = id;
+        }
+        return last;
     }
 
     /**
      * Returns new messages.
      *
-     * @return messages map
+     * @return messages map snapshot
      */
     public Map<Long, Message> getNewMessages() {
-        log.debug("Returning new {} messages", newMessagesMap.size());
-        return newMessagesMap;
+        Map<Long, Message> messages = Collections.unmodifiableNavigableMap(new ConcurrentSkipListMap<>(newMessagesMap));
+        log.debug("Returning new {} messages", messages.size());
+        return messages;
+    }
+
+    /**
+     * @return true if there are new messages waiting to be sent to peers
+     */
+    public boolean hasNewMessages() {
+        return !newMessagesMap.isEmpty();
     }
 
     /**
      * Clear all new messages.
      */
     public void clearNewMessages() {
-        log.debug("Clearing new {} messages", newMessagesMap.size());
-        for (Entry<Long, Message> entry : newMessagesMap.entrySet()) {
-            Long id = entry.getKey();
-            Message message = entry.getValue();
-            log.debug("Removing message {} {} {}", id, message.peerId(), message.message());
+        clearNewMessages(newMessagesMap.keySet());
+    }
+
+    /**
+     * Clear given new messages, new messages stored meanwhile are kept.
+     *
+     * @param ids
+     *            ids of the new messages to clear
+     */
+    public void clearNewMessages(Collection<Long> ids) {
+        log.debug("Clearing new {} messages", ids.size());
+        for (Long id : ids) {
+            Message message = newMessagesMap.remove(id);
+            if (message != null) {
+                log.debug("Removing message {} {} {}", id, message.peerId(), message.message());
+            }
         }
-        newMessagesMap.clear();
     }
 }
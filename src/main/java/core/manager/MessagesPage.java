@@ -0,0 +1,16 @@
+package core.manager;
+
+import core.model.Message;
+
+import java.util.Map;
+
+/**
+ * Page of the message history, see {@link MessagesManager#getMessages(Long, Long, int)}.
+ *
+ * @param messages
+ *            messages of the page ordered by id
+ * @param nextCursor
+ *            id to request the following page with, null if there is no other page
+ */
+public record MessagesPage(Map<Long, Message> messages, Long nextCursor) {
+}
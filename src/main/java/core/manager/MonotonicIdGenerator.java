@@ -0,0 +1,18 @@
+package core.manager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates millisecond time stamp ids, the following id in the same millisecond is moved to the next one. Ids of this
+ * peer never collide, but ids of messages created by different peers in the same millisecond do.
+ */
+public class MonotonicIdGenerator implements IdGenerator {
+
+    private final AtomicLong last = new AtomicLong();
+
+    @Override
+    public long nextId() {
+        long now = System.currentTimeMillis();
+        return last.accumulateAndGet(now, (previous, time) -> Math.max(previous + 1, time));
+    }
+}
@@ -0,0 +1,154 @@
+package core.manager;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Health of the messaging exchange with a single peer, see {@link PeerManager#getHealth(core.model.Peer)}. Keeps
+ * smoothed connect and exchange round trip times (as TCP does for the retransmission timeout), error rate and time of
+ * the last successful exchange. Failing peer is backed off exponentially with jitter, so it does not slow down every
+ * round.
+ */
+public class PeerHealth {
+
+    // smoothing factors of RFC 6298
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    private static final long MIN_TIMEOUT_MS = 250;
+    private static final long BACKOFF_BASE_MS = 1000;
+    private static final long BACKOFF_MAX_MS = 60000;
+
+    private double connectRttMs = -1;
+    private double exchangeRttMs = -1;
+    private double exchangeRttVarMs;
+    private long attempts;
+    private long failures;
+    private int consecutiveFailures;
+    private long lastSuccessMs;
+    private long retryAtMs;
+
+    /**
+     * Record time of the new connection setup.
+     *
+     * @param rttMs
+     *            connect time in milliseconds
+     */
+    public synchronized void recordConnect(long rttMs) {
+        connectRttMs = connectRttMs < 0 ? rttMs : (1 - ALPHA) * connectRttMs + ALPHA * rttMs;
+    }
+
+    /**
+     * Record successful exchange.
+     *
+     * @param rttMs
+     *            request round trip time in milliseconds
+     * @param now
+     *            current time in milliseconds
+     */
+    public synchronized void recordSuccess(long rttMs, long now) {
+        if (exchangeRttMs < 0) {
+            exchangeRttMs = rttMs;
+            exchangeRttVarMs = rttMs / 2.0;
+        } else {
+            exchangeRttVarMs = (1 - BETA) * exchangeRttVarMs + BETA * Math.abs(exchangeRttMs - rttMs);
+            exchangeRttMs = (1 - ALPHA) * exchangeRttMs + ALPHA * rttMs;
+        }
+        attempts++;
+        consecutiveFailures = 0;
+        lastSuccessMs = now;
+        retryAtMs = 0;
+    }
+
+    /**
+     * Record failed exchange and back off the peer.
+     *
+     * @param now
+     *            current time in milliseconds
+     */
+    public synchronized void recordFailure(long now) {
+        attempts++;
+        failures++;
+        consecutiveFailures++;
+        long backoff = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(consecutiveFailures - 1, 16));
+        // jitter spreads retries of peers failed together, e.g. after network outage
+        retryAtMs = now + backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * @param now
+     *            current time in milliseconds
+     *
+     * @return true if peer is not backed off
+     */
+    public synchronized boolean isAvailable(long now) {
+        return now >= retryAtMs;
+    }
+
+    /**
+     * @param maxMs
+     *            timeout used until the connect time is known
+     *
+     * @return connect timeout adapted to the peer connect time
+     */
+    public synchronized int connectTimeout(int maxMs) {
+        if (connectRttMs < 0) {
+            return maxMs;
+        }
+        return (int) Math.min(maxMs, Math.max(MIN_TIMEOUT_MS, (long) (connectRttMs * 4)));
+    }
+
+    /**
+     * @param maxMs
+     *            timeout used until the exchange time is known
+     *
+     * @return response timeout adapted to the peer round trip time and its variation
+     */
+    public synchronized int exchangeTimeout(int maxMs) {
+        if (exchangeRttMs < 0) {
+            return maxMs;
+        }
+        return (int) Math.min(maxMs, Math.max(MIN_TIMEOUT_MS, (long) (exchangeRttMs + 4 * exchangeRttVarMs)));
+    }
+
+    /**
+     * @return score to order peers by, lower is better: fast peers first, failing peers last
+     */
+    public synchronized double score() {
+        double rtt = exchangeRttMs < 0 ? BACKOFF_BASE_MS : exchangeRttMs;
+        return (rtt + 1) * (1 + consecutiveFailures) * (1 + errorRate());
+    }
+
+    /**
+     * @return smoothed connect time in milliseconds, negative if not known
+     */
+    public synchronized double getConnectRttMs() {
+        return connectRttMs;
+    }
+
+    /**
+     * @return smoothed exchange round trip time in milliseconds, negative if not known
+     */
+    public synchronized double getExchangeRttMs() {
+        return exchangeRttMs;
+    }
+
+    /**
+     * @return share of failed exchanges
+     */
+    public synchronized double errorRate() {
+        return attempts == 0 ? 0 : (double) failures / attempts;
+    }
+
+    /**
+     * @return count of failures since the last successful exchange
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return time of the last successful exchange in milliseconds, 0 if none
+     */
+    public synchronized long getLastSuccessMs() {
+        return lastSuccessMs;
+    }
+}
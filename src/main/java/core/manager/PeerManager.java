@@ -1,37 +1,77 @@
 package core.manager;
 
 import core.model.Peer;
+import core.model.PeerInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * Holds known peers and provides API to add new peer, retrieve peers and automatically removes potential offline peers.
+ * Heartbeats update the peer in place and expiry is checked by a hashed timing wheel advanced by the manager calls,
+ * so neither of them scans all peers. Readers get a lock-free view of the peers. Messaging exchange health is tracked
+ * per peer, see {@link PeerHealth}. Peers learned from other peers are merged with their age, so they expire as if they
+ * were discovered directly.
  */
 public class PeerManager {
     private static final Logger log = LoggerFactory.getLogger(PeerManager.class);
 
-    private final Set<Peer> peers;
+    // wheel covers the expiration timeout, so peers usually wait for a single revolution
+    private static final int WHEEL_SLOTS = 64;
+
+    private final Map<Peer, Peer> peers = new ConcurrentHashMap<>();
+    private final Collection<Peer> peersView = Collections.unmodifiableCollection(peers.values());
+    private final Map<Peer, PeerHealth> health = new ConcurrentHashMap<>();
     private final int expirationDurationMs;
+    private final List<Consumer<Peer>> expirationListeners = new CopyOnWriteArrayList<>();
+
+    private final long tickMs;
+    private final List<Queue<Timeout>> wheel;
+    private final AtomicBoolean advancing = new AtomicBoolean();
+    private volatile long currentTick;
+
+    /**
+     * Scheduled expiry check of the peer.
+     *
+     * @param peer
+     *            peer key
+     * @param tick
+     *            wheel tick the check is due at
+     */
+    private record Timeout(Peer peer, long tick) {
+    }
 
     /**
      * @param expirationTimeoutMs
      *            timeout in milliseconds after which peer will be treated as offline
      */
     public PeerManager(int expirationTimeoutMs) {
-        this.peers = Collections.synchronizedSet(new HashSet<>());
         this.expirationDurationMs = expirationTimeoutMs;
+        this.tickMs = Math.max(1, expirationTimeoutMs / WHEEL_SLOTS);
+        List<Queue<Timeout>> slots = new ArrayList<>(WHEEL_SLOTS);
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            slots.add(new ConcurrentLinkedQueue<>());
+        }
+        this.wheel = List.copyOf(slots);
+        this.currentTick = System.currentTimeMillis() / tickMs;
     }
 
     /**
-     * Add peer (existing peer with the same Id and IP address will be updated).
+     * Add peer (existing peer with the same Id, IP address and port will be updated).
      *
      * @param peerId
      *            peer Id
@@ -42,32 +82,220 @@ public class PeerManager {
      */
     public void addPeer(String peerId, String ipAddress, int port) {
         Date date = new Date();
-        log.info("Stored peer {} from {}:{} at {}", peerId, ipAddress, port, date);
-        peers.add(new Peer(peerId, ipAddress, port, date));
+        Peer peer = new Peer(peerId, ipAddress, port, date);
+        // peer equality ignores the check-in date, so the stored peer is replaced with the fresh one
+        if (peers.put(peer, peer) == null) {
+            log.info("Stored peer {} from {}:{} at {}", peerId, ipAddress, port, date);
+            schedule(peer, date.getTime() + expirationDurationMs);
+        } else {
+            log.debug("Refreshed peer {} from {}:{} at {}", peerId, ipAddress, port, date);
+        }
+        expirePeers();
+    }
+
+    /**
+     * Merge peer seen by another peer. Peers the other peer has not seen within the expiration timeout are ignored and
+     * check-in date of known peers only moves forward, so stale reports never extend peer lifetime.
+     *
+     * @param peerId
+     *            peer Id
+     * @param ipAddress
+     *            IP address
+     * @param port
+     *            peer port
+     * @param ageMs
+     *            milliseconds since the other peer has seen the peer
+     *
+     * @return true if the peer was not known before
+     */
+    public boolean mergePeer(String peerId, String ipAddress, int port, long ageMs) {
+        if (ageMs >= expirationDurationMs) {
+            return false;
+        }
+        Date date = new Date(System.currentTimeMillis() - Math.max(0, ageMs));
+        Peer peer = new Peer(peerId, ipAddress, port, date);
+        boolean[] added = new boolean[1];
+        peers.compute(peer, (key, current) -> {
+            if (current == null) {
+                added[0] = true;
+                return peer;
+            }
+            return current.lastCheckinDate().before(date) ? peer : current;
+        });
+        if (added[0]) {
+            log.info("Stored gossiped peer {} from {}:{} seen at {}", peerId, ipAddress, port, date);
+            schedule(peer, date.getTime() + expirationDurationMs);
+        }
+        expirePeers();
+        return added[0];
+    }
+
+    /**
+     * Register listener notified about every expired (removed) peer.
+     *
+     * @param listener
+     *            expired peer consumer
+     */
+    public void addExpirationListener(Consumer<Peer> listener) {
+        expirationListeners.add(listener);
     }
 
     /**
      * Returns known peers.
      *
-     * @return peers collection
+     * @return weakly consistent unmodifiable view of the peers
      */
     public Collection<Peer> getPeers() {
-        cleanupPeers();
-        return peers;
+        expirePeers();
+        return peersView;
     }
 
     /**
-     * Remove "offline" peers from the known peers list.
+     * Returns the most recently seen peers to share with other peers.
+     *
+     * @param limit
+     *            maximum amount of peers
+     *
+     * @return peers with their age, the most recently seen first
      */
-    private void cleanupPeers() {
-        for (Iterator<Peer> it = peers.iterator(); it.hasNext();) {
-            Peer peer = it.next();
-            long duration = new Date().getTime() - peer.lastCheckinDate().getTime();
-            long lifeTime = TimeUnit.MILLISECONDS.convert(duration, TimeUnit.MILLISECONDS);
-            if (lifeTime > expirationDurationMs) {
-                log.info("Removing expired ({}) peer {} from {}:{}", peer.lastCheckinDate(), peer.peerId(),
-                        peer.ipAddress(), peer.port());
-                it.remove();
+    public List<PeerInfo> getRecentPeers(int limit) {
+        long now = System.currentTimeMillis();
+        return getPeers().stream()
+                .sorted(Comparator.comparing(Peer::lastCheckinDate).reversed())
+                .limit(limit)
+                .map(peer -> new PeerInfo(peer.peerId(), peer.ipAddress(), peer.port(),
+                        Math.max(0, now - peer.lastCheckinDate().getTime())))
+                .toList();
+    }
+
+    /**
+     * Returns known peers not backed off after failed exchanges, the healthy and fast ones first.
+     *
+     * @return peers snapshot
+     */
+    public List<Peer> getAvailablePeers() {
+        long now = System.currentTimeMillis();
+        List<Peer> available = new ArrayList<>();
+        Map<Peer, Double> scores = new HashMap<>();
+        for (Peer peer : getPeers()) {
+            PeerHealth peerHealth = health.get(peer);
+            if (peerHealth == null) {
+                available.add(peer);
+                scores.put(peer, 0.0);
+            } else if (peerHealth.isAvailable(now)) {
+                available.add(peer);
+                scores.put(peer, peerHealth.score());
+            }
+        }
+        // unknown peers are tried first, so they get measured
+        available.sort(Comparator.comparingDouble(scores::get));
+        return available;
+    }
+
+    /**
+     * Returns messaging exchange health of the peer, kept until the peer expires.
+     *
+     * @param peer
+     *            peer
+     *
+     * @return peer health
+     */
+    public PeerHealth getHealth(Peer peer) {
+        return health.computeIfAbsent(peer, key -> new PeerHealth());
+    }
+
+    /**
+     * Schedule expiry check of the peer.
+     *
+     * @param peer
+     *            peer
+     * @param deadlineMs
+     *            time in milliseconds the peer expires at unless it checks in again
+     */
+    private void schedule(Peer peer, long deadlineMs) {
+        // round up, so the check never comes before the deadline
+        long tick = Math.max((deadlineMs + tickMs - 1) / tickMs, currentTick + 1);
+        wheel.get((int) (tick % WHEEL_SLOTS)).add(new Timeout(peer, tick));
+    }
+
+    /**
+     * Advance the timing wheel to the current time and remove "offline" peers from the known peers. Checks of the peers
+     * which checked in meanwhile are rescheduled. Only one thread advances the wheel, the others do not wait for it.
+     */
+    private void expirePeers() {
+        long now = System.currentTimeMillis();
+        long nowTick = now / tickMs;
+        if (nowTick <= currentTick || !advancing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // every slot is visited at most once, however long the wheel was not advanced
+            long ticks = Math.min(nowTick - currentTick, WHEEL_SLOTS);
+            List<Timeout> due = new ArrayList<>();
+            for (long tick = nowTick - ticks + 1; tick <= nowTick; tick++) {
+                Queue<Timeout> slot = wheel.get((int) (tick % WHEEL_SLOTS));
+                List<Timeout> drained = new ArrayList<>();
+                for (Timeout timeout; (timeout = slot.poll()) != null;) {
+                    drained.add(timeout);
+                }
+                for (Timeout timeout : drained) {
+                    if (timeout.tick() <= nowTick) {
+                        due.add(timeout);
+                    } else {
+                        // later revolution
+                        slot.add(timeout);
+                    }
+                }
+            }
+            currentTick = nowTick;
+            for (Timeout timeout : due) {
+                expire(timeout.peer(), now);
+            }
+        } finally {
+            advancing.set(false);
+        }
+    }
+
+    private void expire(Peer key, long now) {
+        Peer peer = peers.get(key);
+        if (peer != null) {
+            expire(key, peer, now);
+        }
+    }
+
+    /**
+     * Remove the peer if the checked snapshot is still the stored one and it is expired, reschedule the check
+     * otherwise.
+     *
+     * @param key
+     *            peer key
+     * @param peer
+     *            stored peer the expiry was checked on
+     * @param now
+     *            current time in milliseconds
+     */
+    void expire(Peer key, Peer peer, long now) {
+        long lifeTime = now - peer.lastCheckinDate().getTime();
+        boolean[] removed = new boolean[1];
+        if (lifeTime > expirationDurationMs) {
+            // peer equality ignores the check-in date, so only the same instance tells the peer did not check in
+            // concurrently
+            peers.computeIfPresent(key, (k, current) -> {
+                removed[0] = current == peer;
+                return removed[0] ? null : current;
+            });
+        }
+        if (removed[0]) {
+            log.info("Removing expired ({}) peer {} from {}:{}", peer.lastCheckinDate(), peer.peerId(),
+                    peer.ipAddress(), peer.port());
+            health.remove(key);
+            for (Consumer<Peer> listener : expirationListeners) {
+                listener.accept(peer);
+            }
+        } else {
+            Peer current = peers.get(key);
+            if (current != null) {
+                schedule(key, current.lastCheckinDate().getTime() + expirationDurationMs + 1);
             }
         }
     }
@@ -0,0 +1,193 @@
+package core.manager;
+
+import core.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Message history in the pre-sized ring of primitive ids sorted ascending from {@link RingHistory#head}. Ids are not
+ * boxed, eviction only moves the head and no node is allocated per message. Out of order id is found by binary search
+ * and only newer entries are moved to insert it. Readers copy the ring optimistically without blocking writers.
+ */
+class RingHistory implements MessageHistory {
+    private static final Logger log = LoggerFactory.getLogger(RingHistory.class);
+
+    private final long[] ids;
+    private final Message[] messages;
+    private final StampedLock lock = new StampedLock();
+
+    // physical index of the oldest message
+    private int head;
+    private int size;
+
+    /**
+     * @param messagesLimit
+     *            messages history limit
+     */
+    RingHistory(int messagesLimit) {
+        this.ids = new long[Math.max(1, messagesLimit)];
+        this.messages = new Message[ids.length];
+    }
+
+    @Override
+    public boolean put(long id, Message message) {
+        long stamp = lock.writeLock();
+        try {
+            int pos = search(id, head, size);
+            if (pos >= 0) {
+                int index = index(head, pos);
+                Message previous = messages[index];
+                messages[index] = message;
+                return !message.equals(previous);
+            }
+            int insertAt = -(pos + 1);
+            if (size == ids.length) {
+                if (insertAt == 0) {
+                    log.debug("Skipping message {} older than history limit {}", id, ids.length);
+                    return false;
+                }
+                log.debug("Removing message {} to meet limit {}", ids[head], ids.length);
+                messages[head] = null;
+                head = index(head, 1);
+                size--;
+                insertAt--;
+            }
+            // move newer messages one position forward
+            for (int i = size; i > insertAt; i--) {
+                int to = index(head, i);
+                int from = index(head, i - 1);
+                ids[to] = ids[from];
+                messages[to] = messages[from];
+            }
+            int to = index(head, insertAt);
+            ids[to] = id;
+            messages[to] = message;
+            size++;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Map<Long, Message> snapshot() {
+        return copy(Long.MIN_VALUE, false, Long.MAX_VALUE, Integer.MAX_VALUE, false);
+    }
+
+    @Override
+    public Map<Long, Message> snapshotSince(long sinceId) {
+        return copy(sinceId, true, Long.MAX_VALUE, Integer.MAX_VALUE, false);
+    }
+
+    @Override
+    public Map<Long, Message> range(long sinceId, long beforeId, int limit, boolean newest) {
+        return copy(sinceId, true, beforeId, limit, newest);
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int size = this.size;
+        if (lock.validate(stamp)) {
+            return size;
+        }
+        stamp = lock.readLock();
+        try {
+            return this.size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Copy messages optimistically, falling back to the read lock if ring was changed meanwhile.
+     */
+    private Map<Long, Message> copy(long sinceId, boolean bounded, long beforeId, int limit, boolean newest) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            SortedArrayMap copy = copyUnlocked(sinceId, bounded, beforeId, limit, newest);
+            if (copy != null && lock.validate(stamp)) {
+                return copy;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return copyUnlocked(sinceId, bounded, beforeId, limit, newest);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Copy messages without any lock, result is valid only if ring was not changed meanwhile.
+     *
+     * @return copy or null if inconsistent state was observed
+     */
+    private SortedArrayMap copyUnlocked(long sinceId, boolean bounded, long beforeId, int limit, boolean newest) {
+        int head = this.head;
+        int size = this.size;
+        if (size < 0 || size > ids.length || head < 0 || head >= ids.length) {
+            return null;
+        }
+        int from = 0;
+        if (bounded) {
+            int pos = search(sinceId, head, size);
+            from = pos >= 0 ? pos + 1 : -(pos + 1);
+        }
+        int to = size;
+        if (beforeId != Long.MAX_VALUE) {
+            int pos = search(beforeId, head, size);
+            to = Math.max(from, pos >= 0 ? pos : -(pos + 1));
+        }
+        // only the requested page is copied
+        if (to - from > limit) {
+            if (newest) {
+                from = to - limit;
+            } else {
+                to = from + limit;
+            }
+        }
+        int length = to - from;
+        long[] idsCopy = new long[length];
+        Message[] messagesCopy = new Message[length];
+        for (int i = 0; i < length; i++) {
+            int index = index(head, from + i);
+            idsCopy[i] = ids[index];
+            messagesCopy[i] = messages[index];
+        }
+        return new SortedArrayMap(idsCopy, messagesCopy);
+    }
+
+    /**
+     * Binary search of the id in the ring.
+     *
+     * @return logical position of the id, or (-(insertion point) - 1) if id is not found
+     */
+    private int search(long id, int head, int size) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = ids[index(head, mid)];
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return physical index of the logical position counted from the head
+     */
+    private int index(int head, int position) {
+        int index = head + position;
+        return index >= ids.length ? index - ids.length : index;
+    }
+}
@@ -0,0 +1,14 @@
+package core.manager;
+
+/**
+ * Serialized message history, see {@link MessagesManager#getSerializedMessages(String, java.util.function.Function)}.
+ *
+ * @param version
+ *            history version the bytes were serialized from
+ * @param modifiedMs
+ *            wall-clock time in milliseconds of the last history change the bytes contain
+ * @param bytes
+ *            serialized messages, must not be modified
+ */
+public record SerializedHistory(long version, long modifiedMs, byte[] bytes) {
+}
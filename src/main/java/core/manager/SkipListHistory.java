@@ -0,0 +1,160 @@
+package core.manager;
+
+import core.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Message history in the concurrent skip list. Writes do not block each other and readers get consistent snapshots.
+ */
+class SkipListHistory implements MessageHistory {
+    private static final Logger log = LoggerFactory.getLogger(SkipListHistory.class);
+
+    // how many times snapshot is retried before pausing writers
+    private static final int SNAPSHOT_ATTEMPTS = 4;
+
+    private final ConcurrentSkipListMap<Long, Message> messagesMap = new ConcurrentSkipListMap<>();
+    // skip list size() is not constant time, so count messages separately
+    private final AtomicInteger messagesCount = new AtomicInteger();
+    // snapshot is consistent if no write started or was in progress while it was copied
+    private final AtomicLong writesStarted = new AtomicLong();
+    private final AtomicLong writesCompleted = new AtomicLong();
+    // writers share the gate and never wait for each other, snapshot closes it only if optimistic copy keeps failing
+    private final ReadWriteLock gate = new ReentrantReadWriteLock();
+
+    private final int messagesLimit;
+
+    /**
+     * @param messagesLimit
+     *            messages history limit
+     */
+    SkipListHistory(int messagesLimit) {
+        this.messagesLimit = messagesLimit;
+    }
+
+    @Override
+    public boolean put(long id, Message message) {
+        gate.readLock().lock();
+        writesStarted.incrementAndGet();
+        try {
+            Message previous = messagesMap.put(id, message);
+            if (previous == null) {
+                messagesCount.incrementAndGet();
+            }
+            trim();
+            // message older than full history is evicted right away
+            return !message.equals(previous) && messagesMap.containsKey(id);
+        } finally {
+            writesCompleted.incrementAndGet();
+            gate.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<Long, Message> snapshot() {
+        return snapshot(messagesMap, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Map<Long, Message> snapshotSince(long sinceId) {
+        return snapshot(messagesMap.tailMap(sinceId, false), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Map<Long, Message> range(long sinceId, long beforeId, int limit, boolean newest) {
+        if (sinceId >= beforeId) {
+            return Collections.emptyNavigableMap();
+        }
+        NavigableMap<Long, Message> range = messagesMap.subMap(sinceId, false, beforeId, false);
+        // copy only the requested page, starting from the requested end
+        return snapshot(newest ? range.descendingMap() : range, limit);
+    }
+
+    @Override
+    public int size() {
+        return messagesCount.get();
+    }
+
+    /**
+     * Remove oldest messages to meet the limit.
+     */
+    private void trim() {
+        while (true) {
+            int count = messagesCount.get();
+            if (count <= messagesLimit) {
+                return;
+            }
+            // reserve removal first, so concurrent writers do not remove more than needed
+            if (messagesCount.compareAndSet(count, count - 1)) {
+                Entry<Long, Message> entry = messagesMap.pollFirstEntry();
+                if (entry == null) {
+                    messagesCount.incrementAndGet();
+                    return;
+                }
+                log.debug("Removing message {} to meet limit {}", entry.getKey(), messagesLimit);
+            }
+        }
+    }
+
+    /**
+     * Copy messages, retrying while writes are in progress to get consistent state without blocking writers. Writers
+     * are paused for the copy time only if history keeps changing during all attempts.
+     *
+     * @param messages
+     *            live messages map
+     * @param limit
+     *            maximal amount of copied messages, taken in the map order
+     *
+     * @return read-only sorted copy
+     */
+    private NavigableMap<Long, Message> snapshot(NavigableMap<Long, Message> messages, int limit) {
+        for (int i = 0; i < SNAPSHOT_ATTEMPTS; i++) {
+            long completed = writesCompleted.get();
+            long started = writesStarted.get();
+            if (started != completed) {
+                Thread.onSpinWait();
+                continue;
+            }
+            NavigableMap<Long, Message> copy = copy(messages, limit);
+            if (writesStarted.get() == started) {
+                return copy;
+            }
+        }
+        log.debug("Messages are changing too often, pausing writers to take snapshot");
+        gate.writeLock().lock();
+        try {
+            return copy(messages, limit);
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copy live messages map. Unlike {@link java.util.TreeMap} copy constructor, tolerates concurrent modifications.
+     * Copy is always sorted ascending, even if the given map is descending.
+     */
+    private NavigableMap<Long, Message> copy(NavigableMap<Long, Message> messages, int limit) {
+        if (limit == Integer.MAX_VALUE) {
+            return Collections.unmodifiableNavigableMap(new ConcurrentSkipListMap<>(messages));
+        }
+        ConcurrentSkipListMap<Long, Message> copy = new ConcurrentSkipListMap<>();
+        int count = 0;
+        for (Entry<Long, Message> entry : messages.entrySet()) {
+            if (count++ >= limit) {
+                break;
+            }
+            copy.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableNavigableMap(copy);
+    }
+}
@@ -0,0 +1,71 @@
+package core.manager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates Snowflake ids: milliseconds since {@link SnowflakeIdGenerator#EPOCH_MS} (41 bits), node (10 bits) and
+ * sequence within the millisecond (12 bits). Peers with different nodes never generate the same id. More than 4096 ids
+ * in a millisecond or clock moved backwards borrow the following millisecond instead of waiting, so ids stay ordered.
+ */
+public class SnowflakeIdGenerator implements IdGenerator {
+
+    /**
+     * Custom epoch 2024-01-01T00:00:00Z, 41 bits of milliseconds last until year 2093.
+     */
+    public static final long EPOCH_MS = 1704067200000L;
+
+    /**
+     * Count of the node ids.
+     */
+    public static final int NODES = 1 << 10;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int NODE_BITS = 10;
+    private static final int TIMESTAMP_SHIFT = SEQUENCE_BITS + NODE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long node;
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * @param node
+     *            node id from 0 to {@link SnowflakeIdGenerator#NODES} - 1, unique within the network
+     */
+    public SnowflakeIdGenerator(int node) {
+        if (node < 0 || node >= NODES) {
+            throw new IllegalArgumentException(String.format("Node must be between 0 and %d", NODES - 1));
+        }
+        this.node = (long) node << SEQUENCE_BITS;
+    }
+
+    /**
+     * @param id
+     *            Snowflake id
+     *
+     * @return time in milliseconds since epoch the id was generated at
+     */
+    public static long timestampOf(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH_MS;
+    }
+
+    @Override
+    public long nextId() {
+        while (true) {
+            long previous = last.get();
+            long timestamp = System.currentTimeMillis() - EPOCH_MS;
+            long previousTimestamp = previous >>> TIMESTAMP_SHIFT;
+            long next;
+            if (timestamp > previousTimestamp) {
+                next = timestamp << TIMESTAMP_SHIFT | node;
+            } else if ((previous & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                next = previous + 1;
+            } else {
+                // sequence exhausted, continue in the following millisecond
+                next = (previousTimestamp + 1) << TIMESTAMP_SHIFT | node;
+            }
+            if (last.compareAndSet(previous, next)) {
+                return next;
+            }
+        }
+    }
+}
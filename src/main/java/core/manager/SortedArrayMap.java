@@ -0,0 +1,80 @@
+package core.manager;
+
+import core.model.Message;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only map view over the sorted arrays of primitive ids and messages, iterated in the id order.
+ */
+class SortedArrayMap extends AbstractMap<Long, Message> {
+    private final long[] ids;
+    private final Message[] messages;
+
+    /**
+     * @param ids
+     *            ids sorted ascending
+     * @param messages
+     *            messages in the ids order
+     */
+    SortedArrayMap(long[] ids, Message[] messages) {
+        this.ids = ids;
+        this.messages = messages;
+    }
+
+    @Override
+    public int size() {
+        return ids.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long id && Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    @Override
+    public Message get(Object key) {
+        if (!(key instanceof Long id)) {
+            return null;
+        }
+        int pos = Arrays.binarySearch(ids, id);
+        return pos >= 0 ? messages[pos] : null;
+    }
+
+    @Override
+    public Set<Entry<Long, Message>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return ids.length;
+            }
+
+            @Override
+            public Iterator<Entry<Long, Message>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < ids.length;
+                    }
+
+                    @Override
+                    public Entry<Long, Message> next() {
+                        if (next >= ids.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<Long, Message> entry = new SimpleImmutableEntry<>(ids[next], messages[next]);
+                        next++;
+                        return entry;
+                    }
+                };
+            }
+        };
+    }
+}
@@ -16,6 +16,10 @@ public enum Command {
      * New message command.
      */
     NEW_MESSAGE("new_message"),
+    /**
+     * Batch of new messages command, acknowledged once with status of every message, see {@link Feature#BATCH}.
+     */
+    NEW_MESSAGES("new_messages"),
     /**
      * Any other (we don't know) command.
      */
@@ -0,0 +1,97 @@
+package core.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Optional peer protocol features, negotiated with {@link Command#HELLO}. Requesting peer lists features it supports
+ * and responding peer returns features both peers will use.
+ */
+public enum Feature {
+
+    /**
+     * Length-prefixed binary JSON (Smile) frames instead of JSON lines.
+     */
+    SMILE("smile"),
+    /**
+     * New messages are sent with single {@link Command#NEW_MESSAGES} request instead of one request per message.
+     */
+    BATCH("batch"),
+    /**
+     * {@link Command#HELLO} carries digest of the requesting peer history and only the messages it differs in are
+     * returned.
+     */
+    DIGEST("digest"),
+    /**
+     * {@link Command#HELLO} response carries recently seen peers of the responding peer, see {@link PeerInfo}.
+     */
+    PEERS("peers"),
+    /**
+     * Any other (we don't know) feature.
+     */
+    UNKNOWN("unknown");
+
+    /**
+     * Used by JSON mapper to generate string from enum.
+     */
+    @JsonValue
+    private String value;
+
+    Feature(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Used by JSON mapper to generate enum from string.
+     *
+     * @param value
+     *            feature string representation
+     *
+     * @return enum value
+     */
+    @JsonCreator
+    public static Feature fromString(String value) {
+        if (value == null) {
+            return null;
+        }
+        for (Feature item : values()) {
+            if (item.value.equalsIgnoreCase(value.trim())) {
+                return item;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Parse comma separated list of features, e.g. from the property file.
+     *
+     * @param values
+     *            comma separated features
+     *
+     * @return features, empty if none defined
+     */
+    public static Set<Feature> parse(String values) {
+        Set<Feature> features = EnumSet.noneOf(Feature.class);
+        if (values == null || values.isBlank()) {
+            return features;
+        }
+        for (String value : values.split(",")) {
+            if (value.isBlank()) {
+                continue;
+            }
+            Feature feature = fromString(value);
+            if (feature == UNKNOWN) {
+                throw new IllegalArgumentException(String.format("Unknown messaging feature '%s'", value.trim()));
+            }
+            features.add(feature);
+        }
+        return features;
+    }
+
+    public String value() {
+        return value;
+    }
+}
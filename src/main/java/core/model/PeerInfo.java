@@ -0,0 +1,20 @@
+package core.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Recently seen peer shared in the {@link Command#HELLO} response, see {@link Feature#PEERS}. Age is relative, so peers
+ * do not need synchronized clocks.
+ *
+ * @param peerId
+ *            peer Id
+ * @param ipAddress
+ *            peer IP address
+ * @param port
+ *            peer messaging port
+ * @param ageMs
+ *            milliseconds since the peer was last seen by the responding peer
+ */
+public record PeerInfo(@JsonProperty("peer_id") String peerId, @JsonProperty("ip_address") String ipAddress, int port,
+        @JsonProperty("age_ms") long ageMs) {
+}
@@ -2,9 +2,92 @@ package core.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Messaging request record.
+ *
+ * @param sinceId
+ *            highest message id requesting peer already holds from the receiving peer, {@link Command#HELLO} returns
+ *            only newer messages if defined
+ * @param features
+ *            protocol features supported by requesting peer, see {@link Feature}
+ * @param messages
+ *            messages sent with {@link Command#NEW_MESSAGES} by their ids
+ * @param digest
+ *            history digest buckets of requesting peer, see {@link Feature#DIGEST}
  */
 public record Request(Command command, @JsonProperty("peer_id") String peerId,
-        @JsonProperty("message_id") Long messageId, String message) {
+        @JsonProperty("message_id") Long messageId, String message, @JsonProperty("since_id") Long sinceId,
+        List<Feature> features, Map<Long, Message> messages, Map<Integer, Long> digest) {
+
+    public Request(Command command, String peerId, Long messageId, String message) {
+        this(command, peerId, messageId, message, null, null, null, null);
+    }
+
+    /**
+     * @param command
+     *            request command
+     * @param peerId
+     *            requesting peer id
+     *
+     * @return builder of the request with the optional components
+     */
+    public static Builder builder(Command command, String peerId) {
+        return new Builder(command, peerId);
+    }
+
+    /**
+     * Builds request with the optional components, components which are not set stay null.
+     */
+    public static class Builder {
+        private final Command command;
+        private final String peerId;
+        private Long messageId;
+        private String message;
+        private Long sinceId;
+        private List<Feature> features;
+        private Map<Long, Message> messages;
+        private Map<Integer, Long> digest;
+
+        private Builder(Command command, String peerId) {
+            this.command = command;
+            this.peerId = peerId;
+        }
+
+        public Builder messageId(Long messageId) {
+            this.messageId = messageId;
+            return this;
+        }
+
+        public Builder message(String message) {
+            this.message = message;
+            return this;
+        }
+
+        public Builder sinceId(Long sinceId) {
+            this.sinceId = sinceId;
+            return this;
+        }
+
+        public Builder features(List<Feature> features) {
+            this.features = features;
+            return this;
+        }
+
+        public Builder messages(Map<Long, Message> messages) {
+            this.messages = messages;
+            return this;
+        }
+
+        public Builder digest(Map<Integer, Long> digest) {
+            this.digest = digest;
+            return this;
+        }
+
+        public Request build() {
+            return new Request(command, peerId, messageId, message, sinceId, features, messages, digest);
+        }
+    }
 }
@@ -2,11 +2,93 @@ package core.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.List;
 import java.util.Map;
 
 /**
  * Messaging response record.
+ *
+ * @param features
+ *            protocol features accepted by responding peer, see {@link Feature}
+ * @param nextCursor
+ *            message id to request the following messages page with, see API {@code /messages} parameters
+ * @param statuses
+ *            status of every message received with {@link Command#NEW_MESSAGES} by message id
+ * @param peers
+ *            peers recently seen by responding peer, see {@link Feature#PEERS}
  */
 public record Response(Status status, Map<Long, Message> messages, String message,
-        @JsonProperty("peer_id") String peerId) {
+        @JsonProperty("peer_id") String peerId, List<Feature> features,
+        @JsonProperty("next_cursor") Long nextCursor, Map<Long, Status> statuses, List<PeerInfo> peers) {
+
+    public Response(Status status, Map<Long, Message> messages, String message, String peerId) {
+        this(status, messages, message, peerId, null, null, null, null);
+    }
+
+    /**
+     * @param status
+     *            response status
+     *
+     * @return builder of the response with the optional components
+     */
+    public static Builder builder(Status status) {
+        return new Builder(status);
+    }
+
+    /**
+     * Builds response with the optional components, components which are not set stay null.
+     */
+    public static class Builder {
+        private final Status status;
+        private Map<Long, Message> messages;
+        private String message;
+        private String peerId;
+        private List<Feature> features;
+        private Long nextCursor;
+        private Map<Long, Status> statuses;
+        private List<PeerInfo> peers;
+
+        private Builder(Status status) {
+            this.status = status;
+        }
+
+        public Builder messages(Map<Long, Message> messages) {
+            this.messages = messages;
+            return this;
+        }
+
+        public Builder message(String message) {
+            this.message = message;
+            return this;
+        }
+
+        public Builder peerId(String peerId) {
+            this.peerId = peerId;
+            return this;
+        }
+
+        public Builder features(List<Feature> features) {
+            this.features = features;
+            return this;
+        }
+
+        public Builder nextCursor(Long nextCursor) {
+            this.nextCursor = nextCursor;
+            return this;
+        }
+
+        public Builder statuses(Map<Long, Status> statuses) {
+            this.statuses = statuses;
+            return this;
+        }
+
+        public Builder peers(List<PeerInfo> peers) {
+            this.peers = peers;
+            return this;
+        }
+
+        public Response build() {
+            return new Response(status, messages, message, peerId, features, nextCursor, statuses, peers);
+        }
+    }
 }
@@ -24,6 +24,31 @@ public interface Config {
      */
     String PROP_HISTORY_LIMIT = "history-limit";
 
+    /**
+     * Messages history storage property (skiplist or ring).
+     */
+    String PROP_HISTORY_STORE = "history-store";
+
+    /**
+     * Messages log directory property, history is kept in memory only if not defined.
+     */
+    String PROP_HISTORY_DIR = "history-dir";
+
+    /**
+     * Messages log segment file size property.
+     */
+    String PROP_HISTORY_SEGMENT_BYTES = "history-segment-bytes";
+
+    /**
+     * New message id generator property (monotonic or snowflake).
+     */
+    String PROP_MESSAGE_ID_GENERATOR = "message-id-generator";
+
+    /**
+     * Snowflake id node property (0 to 1023 unique within the network, -1 if not configured).
+     */
+    String PROP_MESSAGE_ID_NODE = "message-id-node";
+
     /**
      * Socket buffer length property.
      */
@@ -50,15 +75,116 @@ public interface Config {
     String PROP_BROADCAST_ADDRESS = "broadcast-subnet";
 
     /**
-     * Broadcast request timeout in milliseconds property.
+     * Peer discovery mode property (broadcast or multicast).
+     */
+    String PROP_DISCOVERY_MODE = "discovery-mode";
+
+    /**
+     * Multicast group discovery requests are sent to in multicast mode property.
+     */
+    String PROP_DISCOVERY_MULTICAST_GROUP = "discovery-multicast-group";
+
+    /**
+     * Multicast discovery requests time-to-live (router hops) property.
+     */
+    String PROP_DISCOVERY_MULTICAST_TTL = "discovery-multicast-ttl";
+
+    /**
+     * Network interface name or address multicast discovery uses property, empty for the system default.
+     */
+    String PROP_DISCOVERY_MULTICAST_INTERFACE = "discovery-multicast-interface";
+
+    /**
+     * Broadcast request timeout in milliseconds property, the fixed interval between broadcast requests if
+     * {@link Config#PROP_BROADCAST_MAX_INTERVAL_MS} is 0.
      */
     String PROP_BROADCAST_TIMEOUT_MS = "broadcast-timeout-ms";
 
+    /**
+     * Maximal interval between broadcast requests in milliseconds while known peers are stable property, 0 for the fixed
+     * {@link Config#PROP_BROADCAST_TIMEOUT_MS} interval.
+     */
+    String PROP_BROADCAST_MAX_INTERVAL_MS = "broadcast-max-interval-ms";
+
+    /**
+     * Interval between broadcast requests in milliseconds at startup and after known peers changed property.
+     */
+    String PROP_BROADCAST_MIN_INTERVAL_MS = "broadcast-min-interval-ms";
+
     /**
      * Peer expiration timeout property.
      */
     String PROP_PEER_TIMEOUT_MS = "peer-timeout-ms";
 
+    /**
+     * Messaging server connection processing mode property (thread, virtual or nio).
+     */
+    String PROP_MSG_SERVER_MODE = "messaging-server-mode";
+
+    /**
+     * Messaging server event loop threads (nio mode only) property.
+     */
+    String PROP_MSG_EVENT_LOOPS = "messaging-event-loops";
+
+    /**
+     * Messaging server concurrently processed connections limit (thread and virtual modes) property.
+     */
+    String PROP_MSG_MAX_CONNECTIONS = "messaging-max-connections";
+
+    /**
+     * How long messaging server keeps connection waiting for the next request property (thread and virtual modes, 0
+     * for no limit).
+     */
+    String PROP_MSG_SERVER_IDLE_MS = "messaging-server-idle-ms";
+
+    /**
+     * How long idle peer connection is kept open for the next exchange round property (0 disables pooling).
+     */
+    String PROP_MSG_POOL_MAX_IDLE_MS = "messaging-pool-max-idle-ms";
+
+    /**
+     * Full history is requested from peers every given amount of exchange rounds property (1 always requests full
+     * history).
+     */
+    String PROP_MSG_FULL_SYNC_ROUNDS = "messaging-full-sync-rounds";
+
+    /**
+     * Comma separated peer protocol features offered and accepted in the handshake property (smile, batch, digest,
+     * peers).
+     */
+    String PROP_MSG_FEATURES = "messaging-features";
+
+    /**
+     * How long new messages are collected before they are pushed to peers property in milliseconds (-1 sends them
+     * with the periodic exchange rounds only).
+     */
+    String PROP_MSG_PUSH_LINGER_MS = "messaging-push-linger-ms";
+
+    /**
+     * Interval of the periodic message exchange rounds property in milliseconds.
+     */
+    String PROP_MSG_ROUND_MS = "messaging-round-ms";
+
+    /**
+     * Count of peers contacted every exchange round property (0 contacts all peers).
+     */
+    String PROP_MSG_GOSSIP_FANOUT = "messaging-gossip-fanout";
+
+    /**
+     * HTTP API server request processing mode property (thread or virtual).
+     */
+    String PROP_API_SERVER_MODE = "http-api-server-mode";
+
+    /**
+     * HTTP API server concurrently processed requests limit property.
+     */
+    String PROP_API_MAX_CONNECTIONS = "http-api-max-connections";
+
+    /**
+     * HTTP API persistent connection idle timeout in milliseconds property (0 closes connection after every response).
+     */
+    String PROP_API_KEEP_ALIVE_MS = "http-api-keep-alive-ms";
+
     default String readInput(BufferedReader in) throws IOException {
         return in.readLine();
     }
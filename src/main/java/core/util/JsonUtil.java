@@ -5,25 +5,34 @@ import com.fasterxml.jackson.core.JacksonException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
 
 /**
- * Utility class to convert objects to JSON string and back.
+ * Utility class to convert objects to JSON string and back. Also converts objects to the binary JSON (Smile) and back.
  */
 public class JsonUtil {
     private static ObjectMapper MAPPER = new ObjectMapper();
+    private static ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
 
     static {
-        MAPPER.setSerializationInclusion(Include.NON_NULL);
-        MAPPER.configure(SerializationFeature.INDENT_OUTPUT, false);
-        MAPPER.configure(SerializationFeature.WRAP_EXCEPTIONS, true);
-        MAPPER.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
-        MAPPER.configure(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT, true);
-        MAPPER.configure(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT, true);
-        MAPPER.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
-        MAPPER.configure(DeserializationFeature.UNWRAP_SINGLE_VALUE_ARRAYS, true);
-        MAPPER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        MAPPER.configure(DeserializationFeature.FAIL_ON_IGNORED_PROPERTIES, false);
-        MAPPER.configure(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT, true);
+        configure(MAPPER);
+        configure(SMILE_MAPPER);
+    }
+
+    private static void configure(ObjectMapper mapper) {
+        mapper.setSerializationInclusion(Include.NON_NULL);
+        mapper.configure(SerializationFeature.INDENT_OUTPUT, false);
+        mapper.configure(SerializationFeature.WRAP_EXCEPTIONS, true);
+        mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        mapper.configure(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT, true);
+        mapper.configure(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT, true);
+        mapper.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
+        mapper.configure(DeserializationFeature.UNWRAP_SINGLE_VALUE_ARRAYS, true);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.configure(DeserializationFeature.FAIL_ON_IGNORED_PROPERTIES, false);
+        mapper.configure(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT, true);
     }
 
     /**
@@ -45,6 +54,25 @@ public class JsonUtil {
         }
     }
 
+    /**
+     * Convert object to UTF-8 encoded JSON
+     *
+     * @param value
+     *            object
+     *
+     * @return serialized Object
+     */
+    public static byte[] toJsonBytes(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return MAPPER.writeValueAsBytes(value);
+        } catch (JacksonException e) {
+            throw new RuntimeException(String.format("Unable to map %s to json", value.getClass()), e);
+        }
+    }
+
     /**
      * Convert JSON string to the object
      *
@@ -65,4 +93,44 @@ public class JsonUtil {
             throw new RuntimeException(String.format("Unable to map json %s to %s", json, type), e);
         }
     }
+
+    /**
+     * Convert object to binary JSON (Smile)
+     *
+     * @param value
+     *            object
+     *
+     * @return serialized Object
+     */
+    public static byte[] toSmile(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return SMILE_MAPPER.writeValueAsBytes(value);
+        } catch (JacksonException e) {
+            throw new RuntimeException(String.format("Unable to map %s to smile", value.getClass()), e);
+        }
+    }
+
+    /**
+     * Convert binary JSON (Smile) to the object
+     *
+     * @param smile
+     *            binary JSON
+     * @param type
+     *            requested object type
+     *
+     * @return de-serialized binary JSON
+     */
+    public static <T> T fromSmile(byte[] smile, Class<T> type) {
+        if (smile == null) {
+            return null;
+        }
+        try {
+            return SMILE_MAPPER.readValue(smile, type);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Unable to map %s bytes of smile to %s", smile.length, type), e);
+        }
+    }
 }
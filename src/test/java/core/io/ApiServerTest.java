@@ -0,0 +1,325 @@
+package core.io;
+
+import core.manager.MessagesManager;
+import core.model.Message;
+import core.model.Response;
+import core.model.Status;
+import core.util.JsonUtil;
+import core.util.TestConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ApiServerTest {
+
+    private static final String PEER_ID = "ApiPeerId";
+    private static final int KEEP_ALIVE_MS = 500;
+
+    private ApiServer server;
+    private MessagesManager msgMgr;
+    private int localPort;
+
+    @Before
+    public void before() throws IOException {
+        // Take an available port
+        ServerSocket s = new ServerSocket(0);
+        localPort = s.getLocalPort();
+        s.close();
+
+        msgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+        server = new ApiServer(localPort, PEER_ID, msgMgr, ExecutionMode.THREAD, 0, KEEP_ALIVE_MS);
+        new Thread(server).start();
+    }
+
+    @After
+    public void after() {
+        server.stop();
+    }
+
+    @Test
+    public void testMessages() throws IOException {
+        for (long id = 1; id <= TestConfig.HISTORY_LIMIT; id++) {
+            msgMgr.addMessage(id, PEER_ID, "Message number " + id);
+        }
+        try (Socket socket = connect();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            send(socket, "GET /messages HTTP/1.1");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            Map<String, String> headers = readHeaders(in);
+            // cached history is sent as is, not streamed in chunks
+            assertNull(headers.get("transfer-encoding"));
+            String body = readBody(in, headers);
+            Response response = JsonUtil.fromJson(body, Response.class);
+            assertEquals(TestConfig.HISTORY_LIMIT, response.messages().size());
+            assertEquals("Message number 1", response.messages().get(1L).message());
+
+            // unchanged history returns the same bytes
+            send(socket, "GET /messages HTTP/1.1");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            assertEquals(body, readBody(in, readHeaders(in)));
+        }
+    }
+
+    @Test
+    public void testMessagesPage() throws IOException {
+        for (long id = 1; id <= 10; id++) {
+            msgMgr.addMessage(id, PEER_ID, "Message number " + id);
+        }
+        try (Socket socket = connect();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            send(socket, "GET /messages?since=5&limit=3 HTTP/1.1");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            Response response = JsonUtil.fromJson(readBody(in, readHeaders(in)), Response.class);
+            assertEquals(List.of(6L, 7L, 8L), new ArrayList<>(response.messages().keySet()));
+            assertEquals(Long.valueOf(8L), response.nextCursor());
+
+            send(socket, "GET /messages?limit=abc HTTP/1.1");
+            assertEquals("HTTP/1.1 400 Bad Request", in.readLine());
+        }
+    }
+
+    @Test
+    public void testSendMessage() throws IOException {
+        try (Socket socket = connect();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            send(socket, "GET /send?message=Hello%20%3Cb%3Eworld%3C%2Fb%3E HTTP/1.1");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            assertEquals(Status.OK, JsonUtil.fromJson(readBody(in, readHeaders(in)), Response.class).status());
+        }
+        assertTrue(msgMgr.getMessages().values().stream()
+                .anyMatch(msg -> "Hello &lt;b&gt;world&lt;/b&gt;".equals(msg.message())));
+    }
+
+    @Test
+    public void testPipelinedRequests() throws IOException {
+        msgMgr.addMessage(1L, PEER_ID, "Stored message");
+        try (Socket socket = connect();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            // both requests are sent before reading any response
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /send?message=Pipelined HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /messages HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            Map<String, String> headers = readHeaders(in);
+            assertEquals("keep-alive", headers.get("connection"));
+            readBody(in, headers);
+
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            Response response = JsonUtil.fromJson(readBody(in, readHeaders(in)), Response.class);
+            assertEquals(2, response.messages().size());
+
+            // connection is still open for the next request
+            send(socket, "GET /messages HTTP/1.1");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+        }
+    }
+
+    @Test
+    public void testConnectionClose() throws IOException {
+        try (Socket socket = connect();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            // HTTP/1.0 client does not ask to keep connection open
+            send(socket, "GET /messages HTTP/1.0");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            Map<String, String> headers = readHeaders(in);
+            assertEquals("close", headers.get("connection"));
+            readBody(in, headers);
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testIdleConnectionClosed() throws IOException {
+        try (Socket socket = connect();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            socket.setSoTimeout(KEEP_ALIVE_MS * 10);
+            send(socket, "GET /messages HTTP/1.1");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            readBody(in, readHeaders(in));
+            // server closes connection once no other request arrives within keep-alive timeout
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testConditionalRequests() throws IOException, InterruptedException {
+        msgMgr.addMessage(1_700_000_000_000L, PEER_ID, "Stored message");
+        // modification time is sent once its second is over
+        Thread.sleep(1000);
+        try (Socket socket = connect();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            send(socket, "GET /messages HTTP/1.1");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            Map<String, String> headers = readHeaders(in);
+            readBody(in, headers);
+            String etag = headers.get("etag");
+            String lastModified = headers.get("last-modified");
+            assertNotNull(lastModified);
+
+            // unchanged history is not sent again
+            send(socket, "GET /messages HTTP/1.1", "If-None-Match: " + etag);
+            assertEquals("HTTP/1.1 304 Not Modified", in.readLine());
+            headers = readHeaders(in);
+            assertEquals(etag, headers.get("etag"));
+            assertNull(headers.get("content-length"));
+            send(socket, "GET /messages HTTP/1.1", "If-Modified-Since: " + lastModified);
+            assertEquals("HTTP/1.1 304 Not Modified", in.readLine());
+            readHeaders(in);
+
+            // changed history is sent with the new entity tag
+            msgMgr.addMessage(1_700_000_001_000L, PEER_ID, "Next message");
+            send(socket, "GET /messages HTTP/1.1", "If-None-Match: " + etag);
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            headers = readHeaders(in);
+            assertNotEquals(etag, headers.get("etag"));
+            Response response = JsonUtil.fromJson(readBody(in, headers), Response.class);
+            assertEquals(2, response.messages().size());
+
+            // message older than the newest one changes the history as well
+            msgMgr.addMessage(1_600_000_000_000L, PEER_ID, "Synchronized message");
+            send(socket, "GET /messages HTTP/1.1", "If-Modified-Since: " + lastModified);
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            response = JsonUtil.fromJson(readBody(in, readHeaders(in)), Response.class);
+            assertEquals(3, response.messages().size());
+        }
+    }
+
+    @Test
+    public void testLongPolling() throws IOException, InterruptedException {
+        msgMgr.addMessage(1, PEER_ID, "Stored message");
+        try (Socket socket = connect();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            // empty page is sent once the wait time elapsed
+            send(socket, "GET /messages?since=1&wait=100 HTTP/1.1");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            Response response = JsonUtil.fromJson(readBody(in, readHeaders(in)), Response.class);
+            assertTrue(response.messages().isEmpty());
+            assertEquals(Long.valueOf(1), response.nextCursor());
+
+            // waiting request is answered with the message stored meanwhile
+            send(socket, "GET /messages?since=1&wait=10000 HTTP/1.1");
+            Thread.sleep(200);
+            msgMgr.addMessage(2, PEER_ID, "New message");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            response = JsonUtil.fromJson(readBody(in, readHeaders(in)), Response.class);
+            assertEquals(1, response.messages().size());
+            assertEquals("New message", response.messages().get(2L).message());
+
+            send(socket, "GET /messages?since=1&wait=-1 HTTP/1.1");
+            assertEquals("HTTP/1.1 400 Bad Request", in.readLine());
+        }
+    }
+
+    @Test
+    public void testEvents() throws IOException {
+        for (long id = 1; id <= 3; id++) {
+            msgMgr.addMessage(id, PEER_ID, "Message number " + id);
+        }
+        try (Socket socket = connect();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            // messages after the last event id are sent first
+            send(socket, "GET /events HTTP/1.1", "Last-Event-ID: 1");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            Map<String, String> headers = readHeaders(in);
+            assertTrue(headers.get("content-type").startsWith("text/event-stream"));
+            assertEquals("close", headers.get("connection"));
+            List<String> event = readEvent(in);
+            assertEquals(List.of("id: 2", "event: message"), event.subList(0, 2));
+            assertEquals(new Message(PEER_ID, "Message number 2"),
+                    JsonUtil.fromJson(event.get(2).substring("data: ".length()), Message.class));
+            assertEquals("id: 3", readEvent(in).get(0));
+
+            // new messages are streamed as they are stored
+            msgMgr.addNewMessage(PEER_ID, "Streamed message");
+            event = readEvent(in);
+            assertTrue(event.get(0).startsWith("id: "));
+            assertTrue(event.get(2).contains("Streamed message"));
+        }
+    }
+
+    private void send(Socket socket, String requestLine, String... headers) throws IOException {
+        StringBuilder request = new StringBuilder(requestLine).append("\r\nHost: localhost\r\n");
+        for (String header : headers) {
+            request.append(header).append("\r\n");
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(request.append("\r\n").toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private Map<String, String> readHeaders(BufferedReader in) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while (!(line = in.readLine()).isEmpty()) {
+            int separator = line.indexOf(':');
+            headers.put(line.substring(0, separator).trim().toLowerCase(), line.substring(separator + 1).trim());
+        }
+        return headers;
+    }
+
+    private String readBody(BufferedReader in, Map<String, String> headers) throws IOException {
+        // content length counts bytes, test messages are ASCII only
+        char[] body = new char[Integer.parseInt(headers.get("content-length"))];
+        int read = 0;
+        while (read < body.length) {
+            read += in.read(body, read, body.length - read);
+        }
+        return new String(body);
+    }
+
+    private List<String> readEvent(BufferedReader in) throws IOException {
+        List<String> event = new ArrayList<>();
+        String line;
+        while (!(line = in.readLine()).isEmpty()) {
+            event.add(line);
+        }
+        return event;
+    }
+
+    private Socket connect() throws IOException {
+        // server is started asynchronously, so retry until it is listening
+        for (int i = 0;; i++) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), localPort);
+            } catch (IOException e) {
+                if (i > 50) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                }
+            }
+        }
+    }
+}
@@ -9,9 +9,13 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.NetworkInterface;
 import java.net.ServerSocket;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -52,8 +56,9 @@ public class DiscoveryClientTest {
         int timeout = TestConfig.BROADCAST_TIMEOUT_MS;
         PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
 
+        // frequent startup probes reach the server even if the first one was sent before it started listening
         DiscoveryClient client = new DiscoveryClient(TestConfig.DEFAULT_PACKET_BUFFER, LOCAL_IP_ADDRESS, localPort,
-                timeout, CLIENT_PEER_ID, peerMgr);
+                timeout / 50, timeout, CLIENT_PEER_ID, peerMgr);
 
         new Thread(client).start();
         // sleep a bit to allow client to reach out server and get response back
@@ -80,13 +85,89 @@ public class DiscoveryClientTest {
         sleep(broadcastTimeout);
         // stop server to block responses from server to the client
         server.stop();
-        // wait until server peer expired
-        sleep(peerTimeout);
+        // wait until server peer expired, it may have checked in right before the server stopped
+        sleep(peerTimeout + broadcastTimeout / 5);
         client.stop();
 
         assertTrue(peerMgr.getPeers().isEmpty());
     }
 
+    @Test
+    public void testMulticastDiscovery() throws IOException {
+        ServerSocket s = new ServerSocket(0);
+        int multicastPort = s.getLocalPort();
+        s.close();
+        String group = "239.255.42.99";
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+
+        DiscoveryServer multicastServer = new DiscoveryServer(TestConfig.DEFAULT_PACKET_BUFFER, multicastPort,
+                "MulticastPeerId", DiscoveryMode.MULTICAST, group, loopback);
+        new Thread(multicastServer).start();
+        PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+        DiscoveryClient client = new DiscoveryClient(TestConfig.DEFAULT_PACKET_BUFFER, group, multicastPort, 100,
+                TestConfig.BROADCAST_TIMEOUT_MS, CLIENT_PEER_ID, peerMgr, DiscoveryMode.MULTICAST, 1, loopback);
+        new Thread(client).start();
+        try {
+            sleep(TestConfig.BROADCAST_TIMEOUT_MS / 3);
+            // request sent to the group reaches the server which joined it
+            assertEquals(1, peerMgr.getPeers().size());
+            assertEquals("MulticastPeerId", peerMgr.getPeers().iterator().next().peerId());
+        } finally {
+            client.stop();
+            multicastServer.stop();
+        }
+    }
+
+    @Test
+    public void testAdaptiveInterval() throws IOException {
+        int minInterval = 50;
+        int maxInterval = 400;
+        PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+        try (DatagramSocket probes = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            probes.setSoTimeout(50);
+            DiscoveryClient client = new DiscoveryClient(TestConfig.DEFAULT_PACKET_BUFFER, LOCAL_IP_ADDRESS,
+                    probes.getLocalPort(), minInterval, maxInterval, CLIENT_PEER_ID, peerMgr);
+            new Thread(client).start();
+            // without peers joining the interval grows 50, 100, 200, 400, 400, ... instead of 36 probes
+            int count = countProbes(probes, 1800);
+            client.stop();
+            assertTrue("Unexpected amount of probes " + count, count >= 4 && count <= 12);
+        }
+    }
+
+    @Test
+    public void testSteadyStateBelowBaseline() throws IOException {
+        int baselineInterval = 200;
+        PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+        try (DatagramSocket probes = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            probes.setSoTimeout(50);
+            DiscoveryClient client = new DiscoveryClient(TestConfig.DEFAULT_PACKET_BUFFER, LOCAL_IP_ADDRESS,
+                    probes.getLocalPort(), 50, baselineInterval * 8, CLIENT_PEER_ID, peerMgr);
+            new Thread(client).start();
+            // startup probes at 0, 50, 150, 350 and 750 ms
+            countProbes(probes, 1000);
+            // stable peers are probed at most every 1600 ms, the fixed interval would send 10 probes
+            int count = countProbes(probes, 2000);
+            client.stop();
+            assertTrue("Unexpected amount of probes " + count, count <= 2);
+        }
+    }
+
+    private int countProbes(DatagramSocket socket, long durationMs) {
+        int count = 0;
+        long deadline = System.currentTimeMillis() + durationMs;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                socket.receive(new DatagramPacket(new byte[TestConfig.DEFAULT_PACKET_BUFFER],
+                        TestConfig.DEFAULT_PACKET_BUFFER));
+                count++;
+            } catch (IOException e) {
+                // no probe within the socket timeout
+            }
+        }
+        return count;
+    }
+
     private void sleep(long sleepMs) {
         try {
             Thread.sleep(sleepMs);
@@ -0,0 +1,371 @@
+package core.io;
+
+import core.manager.MessagesManager;
+import core.manager.PeerManager;
+import core.model.Feature;
+import core.model.Message;
+import core.model.Peer;
+import core.model.Response;
+import core.model.Status;
+import core.util.JsonUtil;
+import core.util.TestConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessagingClientTest {
+
+    private static final String SERVER_PEER_ID = "ServerPeerId";
+    private static final String CLIENT_PEER_ID = "ClientPeerId";
+    private static final int ROUND_TIMEOUT_MS = 200;
+
+    private MessagingServer server;
+    private MessagesManager serverMsgMgr;
+    private PeerManager serverPeerMgr;
+    private int localPort;
+
+    @Before
+    public void before() throws IOException {
+        // Take an available port
+        ServerSocket s = new ServerSocket(0);
+        localPort = s.getLocalPort();
+        s.close();
+
+        serverMsgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+        serverPeerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+        server = new MessagingServer(localPort, serverMsgMgr, serverPeerMgr,
+                new MessagingServer.Options().mode(ExecutionMode.NIO)
+                        .features(EnumSet.of(Feature.SMILE, Feature.BATCH, Feature.DIGEST, Feature.PEERS)));
+        new Thread(server).start();
+    }
+
+    @After
+    public void after() {
+        server.stop();
+    }
+
+    @Test
+    public void testPooledExchange() {
+        testExchange(TestConfig.BROADCAST_TIMEOUT_MS, 1, EnumSet.noneOf(Feature.class));
+    }
+
+    @Test
+    public void testPooledDeltaExchange() {
+        testExchange(TestConfig.BROADCAST_TIMEOUT_MS, 100, EnumSet.noneOf(Feature.class));
+    }
+
+    @Test
+    public void testExchangeWithoutPool() {
+        testExchange(0, 1, EnumSet.noneOf(Feature.class));
+    }
+
+    @Test
+    public void testPooledSmileExchange() {
+        testExchange(TestConfig.BROADCAST_TIMEOUT_MS, 100, EnumSet.of(Feature.SMILE));
+    }
+
+    @Test
+    public void testSmileExchangeWithoutPool() {
+        testExchange(0, 1, EnumSet.of(Feature.SMILE));
+    }
+
+    @Test
+    public void testPooledBatchExchange() {
+        testExchange(TestConfig.BROADCAST_TIMEOUT_MS, 100, EnumSet.of(Feature.SMILE, Feature.BATCH));
+    }
+
+    @Test
+    public void testBatchExchangeWithoutPool() {
+        testExchange(0, 1, EnumSet.of(Feature.BATCH));
+    }
+
+    @Test
+    public void testPooledDigestExchange() {
+        testExchange(TestConfig.BROADCAST_TIMEOUT_MS, 100, EnumSet.of(Feature.SMILE, Feature.DIGEST));
+    }
+
+    @Test
+    public void testDigestExchangeWithoutPool() {
+        testExchange(0, 1, EnumSet.of(Feature.DIGEST));
+    }
+
+    @Test
+    public void testPushNewMessages() {
+        serverMsgMgr.addMessage(1L, SERVER_PEER_ID, "Server message");
+
+        PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+        peerMgr.addPeer(SERVER_PEER_ID, InetAddress.getLoopbackAddress().getHostAddress(), localPort);
+        MessagesManager clientMsgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+        // periodic round is not repeated within the test
+        MessagingClient client = new MessagingClient(60000, CLIENT_PEER_ID, clientMsgMgr, peerMgr,
+                new MessagingClient.Options().poolMaxIdleMs(TestConfig.BROADCAST_TIMEOUT_MS)
+                        .features(EnumSet.of(Feature.SMILE, Feature.BATCH)).pushLingerMs(10));
+        new Thread(client).start();
+        try {
+            await(() -> clientMsgMgr.getMessages().containsKey(1L));
+
+            // new messages are pushed without waiting for the next round
+            clientMsgMgr.addNewMessage(CLIENT_PEER_ID, "Pushed message");
+            await(() -> serverMsgMgr.getMessages().values().stream()
+                    .anyMatch(msg -> "Pushed message".equals(msg.message())));
+            await(() -> !clientMsgMgr.hasNewMessages());
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testGossipFanout() throws IOException {
+        PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+        String address = InetAddress.getLoopbackAddress().getHostAddress();
+        serverMsgMgr.addMessage(1L, SERVER_PEER_ID, "Server message 1");
+        peerMgr.addPeer(SERVER_PEER_ID, address, localPort);
+        List<MessagingServer> servers = new ArrayList<>();
+        for (long i = 2; i <= 3; i++) {
+            ServerSocket s = new ServerSocket(0);
+            int port = s.getLocalPort();
+            s.close();
+            MessagesManager msgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+            msgMgr.addMessage(i, SERVER_PEER_ID + i, "Server message " + i);
+            MessagingServer server = new MessagingServer(port, msgMgr, null,
+                    new MessagingServer.Options().mode(ExecutionMode.NIO));
+            servers.add(server);
+            new Thread(server).start();
+            peerMgr.addPeer(SERVER_PEER_ID + i, address, port);
+        }
+        MessagesManager clientMsgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+        // single peer is contacted every round
+        MessagingClient client = new MessagingClient(ROUND_TIMEOUT_MS * 4, CLIENT_PEER_ID, clientMsgMgr, peerMgr,
+                new MessagingClient.Options().poolMaxIdleMs(TestConfig.BROADCAST_TIMEOUT_MS).gossipFanout(1));
+        new Thread(client).start();
+        try {
+            await(() -> !clientMsgMgr.getMessages().isEmpty());
+            assertEquals(1, clientMsgMgr.getMessages().size());
+            // rotation reaches every peer within the cycle
+            await(() -> clientMsgMgr.getMessages().size() == 3);
+        } finally {
+            client.stop();
+            servers.forEach(MessagingServer::stop);
+        }
+    }
+
+    @Test
+    public void testDeadPeerBackedOff() throws IOException {
+        serverMsgMgr.addMessage(1L, SERVER_PEER_ID, "Server message");
+        ServerSocket s = new ServerSocket(0);
+        int deadPort = s.getLocalPort();
+        s.close();
+
+        PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+        String address = InetAddress.getLoopbackAddress().getHostAddress();
+        peerMgr.addPeer("DeadPeerId", address, deadPort);
+        peerMgr.addPeer(SERVER_PEER_ID, address, localPort);
+        Peer deadPeer = peerMgr.getPeers().stream().filter(peer -> peer.port() == deadPort).findAny().orElseThrow();
+        MessagesManager clientMsgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+        MessagingClient client = new MessagingClient(ROUND_TIMEOUT_MS, CLIENT_PEER_ID, clientMsgMgr, peerMgr);
+        new Thread(client).start();
+        try {
+            await(() -> clientMsgMgr.getMessages().containsKey(1L));
+            await(() -> peerMgr.getHealth(deadPeer).getConsecutiveFailures() > 0);
+            // failing peer is skipped until its backoff elapses, healthy peer is measured
+            assertFalse(peerMgr.getAvailablePeers().contains(deadPeer));
+            assertTrue(peerMgr.getAvailablePeers().stream().anyMatch(peer -> peer.port() == localPort));
+            assertTrue(peerMgr.getHealth(peerMgr.getAvailablePeers().get(0)).getExchangeRttMs() >= 0);
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testPeersGossiped() {
+        String address = InetAddress.getLoopbackAddress().getHostAddress();
+        serverPeerMgr.addPeer("ThirdPeerId", "127.0.0.1", 7000);
+        serverPeerMgr.addPeer(CLIENT_PEER_ID, address, 7001);
+
+        PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+        peerMgr.addPeer(SERVER_PEER_ID, address, localPort);
+        MessagesManager clientMsgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+        MessagingClient client = new MessagingClient(ROUND_TIMEOUT_MS, CLIENT_PEER_ID, clientMsgMgr, peerMgr,
+                new MessagingClient.Options().poolMaxIdleMs(TestConfig.BROADCAST_TIMEOUT_MS).fullSyncRounds(100)
+                        .features(EnumSet.of(Feature.DIGEST, Feature.PEERS)));
+        new Thread(client).start();
+        try {
+            // peer known to the server is learned with the first exchange, without waiting for discovery
+            await(() -> peerMgr.getPeers().size() == 2);
+            Peer third = peerMgr.getPeers().stream().filter(peer -> "ThirdPeerId".equals(peer.peerId()))
+                    .findAny().orElseThrow();
+            // loopback address is replaced by the address of the reporting peer
+            assertEquals(address, third.ipAddress());
+            assertEquals(7000, third.port());
+            // client does not learn itself
+            assertTrue(peerMgr.getPeers().stream().noneMatch(peer -> CLIENT_PEER_ID.equals(peer.peerId())));
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testExchangeKeepsPeerAlive() {
+        int peerTimeout = ROUND_TIMEOUT_MS * 5;
+        PeerManager peerMgr = new PeerManager(peerTimeout);
+        peerMgr.addPeer(SERVER_PEER_ID, InetAddress.getLoopbackAddress().getHostAddress(), localPort);
+        MessagesManager clientMsgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+        MessagingClient client = new MessagingClient(ROUND_TIMEOUT_MS, CLIENT_PEER_ID, clientMsgMgr, peerMgr);
+        new Thread(client).start();
+        try {
+            // no discovery refreshes the peer, answered exchanges do
+            sleep(peerTimeout * 3);
+            assertEquals(1, peerMgr.getPeers().size());
+
+            // peer not answering exchanges expires
+            server.stop();
+            sleep(peerTimeout * 3);
+            assertTrue(peerMgr.getPeers().isEmpty());
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testDigestNotAccepted() throws IOException {
+        try (ServerSocket slowServer = new ServerSocket(0)) {
+            // peer ignoring the digest returns the full history, slower than the measured round trip time
+            Thread serverThread = new Thread(() -> {
+                try (Socket socket = slowServer.accept();
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                        PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                    in.readLine();
+                    Thread.sleep(600);
+                    out.println(JsonUtil.toJson(new Response(Status.OK,
+                            Map.of(1L, new Message(SERVER_PEER_ID, "Server message")), null, null)));
+                    in.readLine();
+                } catch (IOException | InterruptedException e) {
+                    // client closed connection
+                }
+            });
+            serverThread.start();
+
+            PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+            peerMgr.addPeer(SERVER_PEER_ID, InetAddress.getLoopbackAddress().getHostAddress(),
+                    slowServer.getLocalPort());
+            Peer peer = peerMgr.getPeers().iterator().next();
+            for (int i = 0; i < 20; i++) {
+                peerMgr.getHealth(peer).recordSuccess(1, System.currentTimeMillis());
+            }
+            MessagesManager clientMsgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+            MessagingClient client = new MessagingClient(ROUND_TIMEOUT_MS * 10, CLIENT_PEER_ID, clientMsgMgr,
+                    peerMgr, new MessagingClient.Options().features(EnumSet.of(Feature.DIGEST)));
+            new Thread(client).start();
+            try {
+                // full history is awaited with the full exchange timeout, not the adaptive one
+                await(() -> clientMsgMgr.getMessages().containsKey(1L));
+                assertEquals(0, peerMgr.getHealth(peer).getConsecutiveFailures());
+            } finally {
+                client.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testHandshakeError() throws IOException {
+        try (ServerSocket errorServer = new ServerSocket(0)) {
+            AtomicBoolean closed = new AtomicBoolean();
+            Thread serverThread = new Thread(() -> {
+                try (Socket socket = errorServer.accept();
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                        PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                    in.readLine();
+                    out.println(JsonUtil.toJson(new Response(Status.ERROR, null, "Rejected", null)));
+                    closed.set(in.readLine() == null);
+                } catch (IOException e) {
+                    // client closed connection
+                    closed.set(true);
+                }
+            });
+            serverThread.start();
+
+            PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+            peerMgr.addPeer(SERVER_PEER_ID, InetAddress.getLoopbackAddress().getHostAddress(),
+                    errorServer.getLocalPort());
+            Peer peer = peerMgr.getPeers().iterator().next();
+            MessagesManager clientMsgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+            MessagingClient client = new MessagingClient(ROUND_TIMEOUT_MS * 10, CLIENT_PEER_ID, clientMsgMgr,
+                    peerMgr, new MessagingClient.Options().poolMaxIdleMs(TestConfig.BROADCAST_TIMEOUT_MS));
+            new Thread(client).start();
+            try {
+                // rejected handshake fails the exchange even on a fresh connection, which is not pooled
+                await(closed::get);
+                assertTrue(peerMgr.getHealth(peer).getConsecutiveFailures() > 0);
+            } finally {
+                client.stop();
+            }
+        }
+    }
+
+    private void testExchange(int poolMaxIdleMs, int fullSyncRounds, Set<Feature> features) {
+        serverMsgMgr.addMessage(1L, SERVER_PEER_ID, "Server message");
+
+        PeerManager peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+        peerMgr.addPeer(SERVER_PEER_ID, InetAddress.getLoopbackAddress().getHostAddress(), localPort);
+        MessagesManager clientMsgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+        MessagingClient client = new MessagingClient(ROUND_TIMEOUT_MS, CLIENT_PEER_ID, clientMsgMgr, peerMgr,
+                new MessagingClient.Options().poolMaxIdleMs(poolMaxIdleMs).fullSyncRounds(fullSyncRounds)
+                        .features(features));
+        new Thread(client).start();
+        try {
+            // first round pulls server history
+            await(() -> clientMsgMgr.getMessages().containsKey(1L));
+            assertEquals("Server message", clientMsgMgr.getMessages().get(1L).message());
+
+            // newer server messages are received with the following rounds
+            serverMsgMgr.addMessage(2L, SERVER_PEER_ID, "Next server message");
+            await(() -> clientMsgMgr.getMessages().containsKey(2L));
+            assertEquals("Next server message", clientMsgMgr.getMessages().get(2L).message());
+
+            // following round pushes new message over the same or new connection
+            clientMsgMgr.addNewMessage(CLIENT_PEER_ID, "Client message");
+            await(() -> serverMsgMgr.getMessages().values().stream()
+                    .anyMatch(msg -> "Client message".equals(msg.message())));
+        } finally {
+            client.stop();
+        }
+    }
+
+    private void sleep(long sleepMs) {
+        try {
+            Thread.sleep(sleepMs);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    private void await(BooleanSupplier condition) {
+        // first round may be slow while the JVM is warming up, so wait for the expected state
+        long deadline = System.currentTimeMillis() + ROUND_TIMEOUT_MS * 25;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Exchange round did not complete in time", System.currentTimeMillis() < deadline);
+            try {
+                Thread.sleep(ROUND_TIMEOUT_MS / 4);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package core.io;
+
+import core.manager.MessagesManager;
+import core.manager.PeerManager;
+import core.model.Command;
+import core.model.Feature;
+import core.model.Message;
+import core.model.PeerInfo;
+import core.model.Request;
+import core.model.Response;
+import core.model.Status;
+import core.util.JsonUtil;
+import core.util.TestConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessagingServerTest {
+
+    private static final String CLIENT_PEER_ID = "ClientPeerId";
+
+    private MessagingServer server;
+    private MessagesManager msgMgr;
+    private PeerManager peerMgr;
+    private int localPort;
+
+    @After
+    public void after() {
+        server.stop();
+    }
+
+    @Test
+    public void testThreadModeExchange() throws IOException {
+        start(ExecutionMode.THREAD);
+        testExchange();
+    }
+
+    @Test
+    public void testNioModeExchange() throws IOException {
+        start(ExecutionMode.NIO);
+        testExchange();
+    }
+
+    @Test
+    public void testVirtualModeExchange() throws IOException {
+        start(ExecutionMode.VIRTUAL);
+        testExchange();
+    }
+
+    @Test
+    public void testConnectionLimit() throws IOException {
+        start(ExecutionMode.VIRTUAL, 1);
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            // make sure first connection is being processed
+            out.println(JsonUtil.toJson(new Request(Command.HELLO, CLIENT_PEER_ID, null, null)));
+            assertEquals(Status.OK, JsonUtil.fromJson(in.readLine(), Response.class).status());
+            try (Socket rejected = connect();
+                    BufferedReader rejectedIn = new BufferedReader(
+                            new InputStreamReader(rejected.getInputStream()))) {
+                assertEquals(Status.ERROR, JsonUtil.fromJson(rejectedIn.readLine(), Response.class).status());
+            }
+        }
+    }
+
+    @Test
+    public void testIdleConnectionClosed() throws IOException, InterruptedException {
+        start(new MessagingServer.Options().maxConnections(1).idleTimeoutMs(200));
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(JsonUtil.toJson(new Request(Command.HELLO, CLIENT_PEER_ID, null, null)));
+            assertEquals(Status.OK, JsonUtil.fromJson(in.readLine(), Response.class).status());
+            // idle connection is closed by the server, test fails on the client timeout otherwise
+            socket.setSoTimeout(2000);
+            assertNull(in.readLine());
+        }
+        // and its slot is released right after the socket is closed
+        Thread.sleep(100);
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(JsonUtil.toJson(new Request(Command.HELLO, CLIENT_PEER_ID, null, null)));
+            assertEquals(Status.OK, JsonUtil.fromJson(in.readLine(), Response.class).status());
+        }
+    }
+
+    @Test
+    public void testHelloSinceWatermark() throws IOException {
+        start(ExecutionMode.THREAD);
+        msgMgr.addMessage(1L, "ServerPeerId", "Old message");
+        msgMgr.addMessage(2L, "ServerPeerId", "New message");
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(JsonUtil.toJson(Request.builder(Command.HELLO, CLIENT_PEER_ID).sinceId(1L).build()));
+            Response hello = JsonUtil.fromJson(in.readLine(), Response.class);
+            assertEquals(Status.OK, hello.status());
+            assertEquals(1, hello.messages().size());
+            assertEquals("New message", hello.messages().get(2L).message());
+        }
+    }
+
+    @Test
+    public void testNioModePipelinedRequests() throws IOException {
+        start(ExecutionMode.NIO);
+        msgMgr.addMessage(1L, "ServerPeerId", "Stored message");
+        try (Socket socket = connect();
+                OutputStream out = socket.getOutputStream();
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            // requests sent before reading any response are served one after another
+            String hello = JsonUtil.toJson(new Request(Command.HELLO, CLIENT_PEER_ID, null, null)) + "\n";
+            out.write((hello + hello + hello).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            for (int i = 0; i < 3; i++) {
+                Response response = JsonUtil.fromJson(in.readLine(), Response.class);
+                assertEquals(Status.OK, response.status());
+                assertEquals("Stored message", response.messages().get(1L).message());
+            }
+        }
+    }
+
+    @Test
+    public void testNioModeRejectsUnexpectedCommand() throws IOException {
+        start(ExecutionMode.NIO);
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(JsonUtil.toJson(new Request(Command.NEW_MESSAGE, CLIENT_PEER_ID, null, "Hello")));
+            Response response = JsonUtil.fromJson(in.readLine(), Response.class);
+            assertEquals(Status.ERROR, response.status());
+            // connection is closed after the error
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testThreadModeSmileExchange() throws IOException {
+        start(ExecutionMode.THREAD, 0, EnumSet.of(Feature.SMILE));
+        testSmileExchange();
+    }
+
+    @Test
+    public void testNioModeSmileExchange() throws IOException {
+        start(ExecutionMode.NIO, 0, EnumSet.of(Feature.SMILE));
+        testSmileExchange();
+    }
+
+    @Test
+    public void testSmileNotSupported() throws IOException {
+        start(ExecutionMode.NIO);
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(JsonUtil.toJson(
+                    Request.builder(Command.HELLO, CLIENT_PEER_ID).features(List.of(Feature.SMILE)).build()));
+            // server without binary frames keeps JSON lines
+            Response hello = JsonUtil.fromJson(in.readLine(), Response.class);
+            assertEquals(Status.OK, hello.status());
+            assertNull(hello.features());
+        }
+    }
+
+    @Test
+    public void testBatchExchange() throws IOException {
+        start(ExecutionMode.NIO, 0, EnumSet.of(Feature.BATCH));
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(JsonUtil.toJson(
+                    Request.builder(Command.HELLO, CLIENT_PEER_ID).features(List.of(Feature.BATCH)).build()));
+            Response hello = JsonUtil.fromJson(in.readLine(), Response.class);
+            assertEquals(List.of(Feature.BATCH), hello.features());
+
+            Map<Long, Message> batch = new LinkedHashMap<>();
+            batch.put(1L, new Message(CLIENT_PEER_ID, "First message"));
+            batch.put(2L, new Message(CLIENT_PEER_ID, "Second message"));
+            batch.put(3L, new Message(CLIENT_PEER_ID, null));
+            out.println(JsonUtil.toJson(Request.builder(Command.NEW_MESSAGES, CLIENT_PEER_ID).messages(batch).build()));
+            // single acknowledgment with status of every message
+            Response ack = JsonUtil.fromJson(in.readLine(), Response.class);
+            assertEquals(Status.OK, ack.status());
+            assertEquals(Map.of(1L, Status.OK, 2L, Status.OK, 3L, Status.ERROR), ack.statuses());
+        }
+        // messages keep the sender ids
+        assertEquals("First message", msgMgr.getMessages().get(1L).message());
+        assertEquals("Second message", msgMgr.getMessages().get(2L).message());
+        assertNull(msgMgr.getMessages().get(3L));
+    }
+
+    @Test
+    public void testBatchNotNegotiated() throws IOException {
+        start(ExecutionMode.THREAD, 0, EnumSet.of(Feature.BATCH));
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(JsonUtil.toJson(new Request(Command.HELLO, CLIENT_PEER_ID, null, null)));
+            assertEquals(Status.OK, JsonUtil.fromJson(in.readLine(), Response.class).status());
+            out.println(JsonUtil.toJson(Request.builder(Command.NEW_MESSAGES, CLIENT_PEER_ID)
+                    .messages(Map.of(1L, new Message(CLIENT_PEER_ID, "Message"))).build()));
+            assertEquals(Status.ERROR, JsonUtil.fromJson(in.readLine(), Response.class).status());
+        }
+    }
+
+    @Test
+    public void testDigestExchange() throws IOException {
+        start(ExecutionMode.NIO, 0, EnumSet.of(Feature.DIGEST));
+        MessagesManager clientMsgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+        for (long id = 1; id <= TestConfig.HISTORY_LIMIT; id++) {
+            msgMgr.addMessage(id << 12, "ServerPeerId", "Message number " + id);
+            clientMsgMgr.addMessage(id << 12, "ServerPeerId", "Message number " + id);
+        }
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            String hello = JsonUtil.toJson(Request.builder(Command.HELLO, CLIENT_PEER_ID)
+                    .features(List.of(Feature.DIGEST)).digest(clientMsgMgr.getDigest().buckets()).build());
+            out.println(hello);
+            String line = in.readLine();
+            // peers in sync exchange a few hundred bytes only
+            assertTrue(hello.length() + line.length() < 1000);
+            Response response = JsonUtil.fromJson(line, Response.class);
+            assertEquals(Status.OK, response.status());
+            assertEquals(List.of(Feature.DIGEST), response.features());
+            assertTrue(response.messages().isEmpty());
+
+            // only messages of the mismatched bucket are returned
+            long newId = (TestConfig.HISTORY_LIMIT << 12) + 1;
+            msgMgr.addMessage(newId, "ServerPeerId", "New message");
+            out.println(hello);
+            response = JsonUtil.fromJson(in.readLine(), Response.class);
+            assertTrue(response.messages().containsKey(newId));
+            assertTrue(response.messages().size() < TestConfig.HISTORY_LIMIT / 2);
+        }
+    }
+
+    @Test
+    public void testPeersExchange() throws IOException {
+        start(ExecutionMode.THREAD, 0, EnumSet.of(Feature.PEERS));
+        peerMgr.addPeer("KnownPeerId", "10.0.0.2", 5000);
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(JsonUtil.toJson(Request.builder(Command.HELLO, CLIENT_PEER_ID).sinceId(0L)
+                    .features(List.of(Feature.PEERS)).build()));
+            Response response = JsonUtil.fromJson(in.readLine(), Response.class);
+            assertEquals(List.of(Feature.PEERS), response.features());
+            assertEquals(1, response.peers().size());
+            PeerInfo peer = response.peers().get(0);
+            assertEquals("KnownPeerId", peer.peerId());
+            assertEquals("10.0.0.2", peer.ipAddress());
+            assertEquals(5000, peer.port());
+            assertTrue(peer.ageMs() < TestConfig.PEER_TIMEOUT_MS);
+
+            // peers not negotiating the feature do not get the list
+            out.println(JsonUtil.toJson(Request.builder(Command.HELLO, CLIENT_PEER_ID).sinceId(0L).build()));
+            assertNull(JsonUtil.fromJson(in.readLine(), Response.class).peers());
+        }
+    }
+
+    private void testSmileExchange() throws IOException {
+        msgMgr.addMessage(1L, "ServerPeerId", "Stored message");
+        try (Socket socket = connect();
+                OutputStream out = socket.getOutputStream();
+                DataInputStream in = new DataInputStream(socket.getInputStream())) {
+            // handshake is sent as JSON line, server switches to binary frames with the response
+            String handshake = JsonUtil.toJson(Request.builder(Command.HELLO, CLIENT_PEER_ID)
+                    .features(List.of(Feature.SMILE, Feature.UNKNOWN)).build()) + "\n";
+            out.write(handshake.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            Response hello = readFrame(in);
+            assertEquals(Status.OK, hello.status());
+            assertEquals(List.of(Feature.SMILE), hello.features());
+            assertEquals("Stored message", hello.messages().get(1L).message());
+
+            out.write(WireStream.frame(JsonUtil.toSmile(new Request(Command.NEW_MESSAGE, CLIENT_PEER_ID, 2L,
+                    "New message"))));
+            out.flush();
+            assertEquals(Status.OK, readFrame(in).status());
+        }
+        assertTrue(msgMgr.getMessages().values().stream().anyMatch(msg -> "New message".equals(msg.message())));
+    }
+
+    private Response readFrame(DataInputStream in) throws IOException {
+        assertEquals(WireStream.FRAME_MARKER, in.readByte());
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        return JsonUtil.fromSmile(payload, Response.class);
+    }
+
+    private void testExchange() throws IOException {
+        msgMgr.addMessage(1L, "ServerPeerId", "Stored message");
+        try (Socket socket = connect();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(JsonUtil.toJson(new Request(Command.HELLO, CLIENT_PEER_ID, null, null)));
+            Response hello = JsonUtil.fromJson(in.readLine(), Response.class);
+            assertEquals(Status.OK, hello.status());
+            assertNotNull(hello.messages());
+            assertEquals("Stored message", hello.messages().get(1L).message());
+
+            out.println(JsonUtil.toJson(new Request(Command.NEW_MESSAGE, CLIENT_PEER_ID, 2L, "New message")));
+            Response ack = JsonUtil.fromJson(in.readLine(), Response.class);
+            assertEquals(Status.OK, ack.status());
+        }
+        // received message keeps the sender's id and author and is not sent on as a new message
+        assertEquals(new Message(CLIENT_PEER_ID, "New message"), msgMgr.getMessages().get(2L));
+        assertFalse(msgMgr.hasNewMessages());
+    }
+
+    private void start(ExecutionMode mode) throws IOException {
+        start(mode, 0);
+    }
+
+    private void start(ExecutionMode mode, int maxConnections) throws IOException {
+        start(mode, maxConnections, EnumSet.noneOf(Feature.class));
+    }
+
+    private void start(ExecutionMode mode, int maxConnections, Set<Feature> features) throws IOException {
+        start(new MessagingServer.Options().mode(mode).eventLoops(2).maxConnections(maxConnections)
+                .features(features));
+    }
+
+    private void start(MessagingServer.Options options) throws IOException {
+        // Take an available port
+        ServerSocket s = new ServerSocket(0);
+        localPort = s.getLocalPort();
+        s.close();
+
+        msgMgr = new MessagesManager(TestConfig.HISTORY_LIMIT);
+        peerMgr = new PeerManager(TestConfig.PEER_TIMEOUT_MS);
+        server = new MessagingServer(localPort, msgMgr, peerMgr, options);
+        new Thread(server).start();
+    }
+
+    private Socket connect() throws IOException {
+        // server is started asynchronously, so retry until it is listening
+        for (int i = 0;; i++) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), localPort);
+            } catch (IOException e) {
+                if (i > 50) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                }
+            }
+        }
+    }
+}
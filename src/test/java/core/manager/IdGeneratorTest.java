@@ -0,0 +1,96 @@
+package core.manager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdGeneratorTest {
+
+    private static final int THREADS = 4;
+    private static final int IDS_PER_THREAD = 100_000;
+
+    @Test
+    public void testSnowflakeIdsOrdered() {
+        IdGenerator generator = new SnowflakeIdGenerator(5);
+        long before = System.currentTimeMillis();
+        long previous = 0;
+        // more ids than the sequence holds in a millisecond
+        for (int i = 0; i < 10_000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+        long timestamp = IdGenerator.timestampOf(previous);
+        assertTrue(timestamp >= before);
+        assertTrue(timestamp <= System.currentTimeMillis() + 10);
+    }
+
+    @Test
+    public void testSnowflakeNodes() {
+        // peers creating messages in the same millisecond get different ids
+        long id = new SnowflakeIdGenerator(1).nextId();
+        long otherId = new SnowflakeIdGenerator(2).nextId();
+        assertNotEquals(id, otherId);
+    }
+
+    @Test
+    public void testDefaultGenerator() {
+        // millisecond ids keep sorting together with the ids of older peers
+        assertEquals(IdGeneratorType.MONOTONIC, IdGeneratorType.fromString(null));
+        assertEquals(IdGeneratorType.SNOWFLAKE, IdGeneratorType.fromString("snowflake"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSnowflakeInvalidNode() {
+        new SnowflakeIdGenerator(SnowflakeIdGenerator.NODES);
+    }
+
+    @Test
+    public void testConcurrentSnowflakeIds() throws InterruptedException {
+        testConcurrentIds(new SnowflakeIdGenerator(SnowflakeIdGenerator.NODES - 1));
+    }
+
+    @Test
+    public void testConcurrentMonotonicIds() throws InterruptedException {
+        testConcurrentIds(new MonotonicIdGenerator());
+    }
+
+    @Test
+    public void testMillisecondIds() {
+        long before = System.currentTimeMillis();
+        long id = new MonotonicIdGenerator().nextId();
+        // ids created before snowflake ids are millisecond time stamps
+        assertEquals(id, IdGenerator.timestampOf(id));
+        assertTrue(id >= before);
+        assertEquals(1_700_000_000_000L, IdGenerator.timestampOf(1_700_000_000_000L));
+    }
+
+    private void testConcurrentIds(IdGenerator generator) throws InterruptedException {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread(() -> {
+                long previous = 0;
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    long id = generator.nextId();
+                    assertTrue(id > previous);
+                    previous = id;
+                    ids.add(id);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+    }
+}
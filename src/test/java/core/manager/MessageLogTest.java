@@ -0,0 +1,103 @@
+package core.manager;
+
+import core.model.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageLogTest {
+
+    private static final String PEER_ID = "PeerId";
+    private static final int HISTORY_LIMIT = 10;
+    // fits only few records, so segments are rolled often
+    private static final int SEGMENT_BYTES = 128;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRestoreHistory() throws IOException {
+        String dir = folder.newFolder().getAbsolutePath();
+        MessageLog messageLog = new MessageLog(dir, SEGMENT_BYTES, HISTORY_LIMIT);
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, HistoryStore.SKIP_LIST, messageLog);
+        for (long id = 1; id <= HISTORY_LIMIT * 3; id++) {
+            msgMgr.addMessage(id, PEER_ID, "Message " + id);
+        }
+        msgMgr.addMessage(HISTORY_LIMIT * 3 + 1, null, null);
+        messageLog.close();
+
+        MessagesManager restored = new MessagesManager(HISTORY_LIMIT, HistoryStore.RING,
+                new MessageLog(dir, SEGMENT_BYTES, HISTORY_LIMIT));
+        assertEquals(msgMgr.getMessages(), restored.getMessages());
+        Message empty = restored.getMessages().get((long) HISTORY_LIMIT * 3 + 1);
+        assertNull(empty.peerId());
+        assertNull(empty.message());
+    }
+
+    @Test
+    public void testOldSegmentsDeleted() throws IOException {
+        File dir = folder.newFolder();
+        MessageLog messageLog = new MessageLog(dir.getAbsolutePath(), SEGMENT_BYTES, HISTORY_LIMIT);
+        for (long id = 1; id <= HISTORY_LIMIT * 10; id++) {
+            messageLog.append(id, new Message(PEER_ID, "Message " + id));
+        }
+        List<Long> ids = new ArrayList<>();
+        messageLog.replay((id, message) -> ids.add(id));
+        // at least history limit messages are kept
+        assertTrue(ids.size() >= HISTORY_LIMIT);
+        assertTrue(ids.size() < HISTORY_LIMIT * 2);
+        assertEquals(Long.valueOf(HISTORY_LIMIT * 10), ids.get(ids.size() - 1));
+        assertTrue(dir.list().length < HISTORY_LIMIT * 2);
+    }
+
+    @Test
+    public void testRestoreOutOfOrderHistory() throws IOException {
+        String dir = folder.newFolder().getAbsolutePath();
+        MessageLog messageLog = new MessageLog(dir, SEGMENT_BYTES, HISTORY_LIMIT);
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, HistoryStore.SKIP_LIST, messageLog);
+        // newest messages arrive first, older ones received from other peers later
+        for (long id = HISTORY_LIMIT * 10; id > HISTORY_LIMIT * 10 - HISTORY_LIMIT / 2; id--) {
+            msgMgr.addMessage(id, PEER_ID, "Message " + id);
+        }
+        for (long id = 1; id <= HISTORY_LIMIT / 2; id++) {
+            msgMgr.addMessage(id, PEER_ID, "Message " + id);
+        }
+        // replaced message is logged again
+        for (int i = 0; i < HISTORY_LIMIT * 10; i++) {
+            msgMgr.addMessage(HISTORY_LIMIT * 10, PEER_ID, "Edited message " + i);
+        }
+        messageLog.close();
+        // segments holding only replaced messages are deleted
+        assertTrue(new File(dir).list().length <= HISTORY_LIMIT + 1);
+
+        MessagesManager restored = new MessagesManager(HISTORY_LIMIT, HistoryStore.RING,
+                new MessageLog(dir, SEGMENT_BYTES, HISTORY_LIMIT));
+        assertEquals(msgMgr.getMessages(), restored.getMessages());
+        assertEquals("Edited message " + (HISTORY_LIMIT * 10 - 1),
+                restored.getMessages().get((long) HISTORY_LIMIT * 10).message());
+    }
+
+    @Test
+    public void testSameMessageNotAppendedAgain() throws IOException {
+        String dir = folder.newFolder().getAbsolutePath();
+        MessageLog messageLog = new MessageLog(dir, SEGMENT_BYTES, HISTORY_LIMIT);
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, HistoryStore.SKIP_LIST, messageLog);
+        msgMgr.addMessage(1L, PEER_ID, "Message");
+        msgMgr.addMessage(1L, PEER_ID, "Message");
+        List<Long> ids = new ArrayList<>();
+        messageLog.replay((id, message) -> ids.add(id));
+        assertEquals(List.of(1L), ids);
+        Map<Long, Message> messages = msgMgr.getMessages();
+        assertEquals(1, messages.size());
+    }
+}
@@ -0,0 +1,297 @@
+package core.manager;
+
+import core.model.Message;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class MessagesManagerTest {
+
+    private static final String PEER_ID = "PeerId";
+    private static final int HISTORY_LIMIT = 100;
+
+    @Parameter
+    public HistoryStore store;
+
+    @Parameters(name = "{0}")
+    public static Collection<HistoryStore> stores() {
+        return Arrays.asList(HistoryStore.values());
+    }
+
+    @Test
+    public void testHistoryLimit() {
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, store);
+        for (long id = 1; id <= HISTORY_LIMIT * 2; id++) {
+            msgMgr.addMessage(id, PEER_ID, "Message " + id);
+        }
+        Map<Long, Message> messages = msgMgr.getMessages();
+        assertEquals(HISTORY_LIMIT, messages.size());
+        // oldest messages are evicted
+        assertNull(messages.get((long) HISTORY_LIMIT));
+        assertEquals("Message " + HISTORY_LIMIT * 2, messages.get((long) HISTORY_LIMIT * 2).message());
+    }
+
+    @Test
+    public void testMessagesSince() {
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, store);
+        for (long id = 1; id <= 10; id++) {
+            msgMgr.addMessage(id, PEER_ID, "Message " + id);
+        }
+        Map<Long, Message> messages = msgMgr.getMessages(7);
+        assertEquals(List.of(8L, 9L, 10L), new ArrayList<>(messages.keySet()));
+    }
+
+    @Test
+    public void testOutOfOrderMessages() {
+        MessagesManager msgMgr = new MessagesManager(3, store);
+        msgMgr.addMessage(5L, PEER_ID, "Message 5");
+        msgMgr.addMessage(1L, PEER_ID, "Message 1");
+        msgMgr.addMessage(3L, PEER_ID, "Message 3");
+        // replaces existing message
+        msgMgr.addMessage(3L, PEER_ID, "Message 3 updated");
+        // evicts the oldest message
+        msgMgr.addMessage(4L, PEER_ID, "Message 4");
+        // older than whole full history
+        msgMgr.addMessage(2L, PEER_ID, "Message 2");
+        Map<Long, Message> messages = msgMgr.getMessages();
+        assertEquals(List.of(3L, 4L, 5L), new ArrayList<>(messages.keySet()));
+        assertEquals("Message 3 updated", messages.get(3L).message());
+        assertEquals(List.of(4L, 5L), new ArrayList<>(msgMgr.getMessages(3L).keySet()));
+    }
+
+    @Test
+    public void testMessagesPages() {
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, store);
+        for (long id = 1; id <= 10; id++) {
+            msgMgr.addMessage(id, PEER_ID, "Message " + id);
+        }
+        // forward pages continue with the last returned id
+        MessagesPage page = msgMgr.getMessages(3L, null, 4);
+        assertEquals(List.of(4L, 5L, 6L, 7L), new ArrayList<>(page.messages().keySet()));
+        assertEquals(Long.valueOf(7L), page.nextCursor());
+        page = msgMgr.getMessages(page.nextCursor(), null, 4);
+        assertEquals(List.of(8L, 9L, 10L), new ArrayList<>(page.messages().keySet()));
+        page = msgMgr.getMessages(page.nextCursor(), null, 4);
+        assertTrue(page.messages().isEmpty());
+        assertEquals(Long.valueOf(10L), page.nextCursor());
+
+        // backward pages continue with the first returned id until the oldest message
+        page = msgMgr.getMessages(null, null, 4);
+        assertEquals(List.of(7L, 8L, 9L, 10L), new ArrayList<>(page.messages().keySet()));
+        assertEquals(Long.valueOf(7L), page.nextCursor());
+        page = msgMgr.getMessages(null, 3L, 4);
+        assertEquals(List.of(1L, 2L), new ArrayList<>(page.messages().keySet()));
+        assertNull(page.nextCursor());
+
+        // both bounds
+        page = msgMgr.getMessages(2L, 6L, Integer.MAX_VALUE);
+        assertEquals(List.of(3L, 4L, 5L), new ArrayList<>(page.messages().keySet()));
+        assertTrue(msgMgr.getMessages(6L, 2L, 4).messages().isEmpty());
+    }
+
+    @Test
+    public void testVersion() {
+        MessagesManager msgMgr = new MessagesManager(2, store);
+        long version = msgMgr.getVersion();
+        msgMgr.addMessage(1L, PEER_ID, "Message 1");
+        assertEquals(version + 1, msgMgr.getVersion());
+        // the same message does not change history
+        msgMgr.addMessage(1L, PEER_ID, "Message 1");
+        assertEquals(version + 1, msgMgr.getVersion());
+        msgMgr.addMessage(2L, PEER_ID, "Message 2");
+        // eviction of the oldest message
+        msgMgr.addMessage(3L, PEER_ID, "Message 3");
+        assertEquals(version + 3, msgMgr.getVersion());
+    }
+
+    @Test
+    public void testListeners() {
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, store);
+        List<Long> notified = new ArrayList<>();
+        MessageListener listener = (id, message) -> notified.add(id);
+        msgMgr.addListener(listener);
+        msgMgr.addMessage(1L, PEER_ID, "Message 1");
+        // unchanged history is not notified
+        msgMgr.addMessage(1L, PEER_ID, "Message 1");
+        msgMgr.addMessage(2L, PEER_ID, "Message 2");
+        msgMgr.removeListener(listener);
+        msgMgr.addMessage(3L, PEER_ID, "Message 3");
+        assertEquals(List.of(1L, 2L), notified);
+    }
+
+    @Test
+    public void testAwaitChange() throws InterruptedException {
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, store);
+        long version = msgMgr.getVersion();
+        assertFalse(msgMgr.awaitChange(version, 50));
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            msgMgr.addMessage(1L, PEER_ID, "Message 1");
+        });
+        writer.start();
+        assertTrue(msgMgr.awaitChange(version, 10000));
+        writer.join();
+        // already changed version does not wait
+        assertTrue(msgMgr.awaitChange(version, 0));
+    }
+
+    @Test
+    public void testDigest() {
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, store);
+        MessagesManager otherMsgMgr = new MessagesManager(HISTORY_LIMIT, store);
+        // one message per digest bucket, stored in different order
+        long bucketWidth = 1L << 16;
+        for (int i = 0; i < HistoryDigest.BUCKETS; i++) {
+            msgMgr.addMessage(i * bucketWidth, PEER_ID, "Message " + i);
+            otherMsgMgr.addMessage((HistoryDigest.BUCKETS - 1 - i) * bucketWidth, PEER_ID,
+                    "Message " + (HistoryDigest.BUCKETS - 1 - i));
+        }
+        HistoryDigest digest = msgMgr.getDigest();
+        assertEquals(HistoryDigest.BUCKETS, digest.buckets().size());
+        assertEquals(digest.buckets(), otherMsgMgr.getDigest().buckets());
+        // unchanged history is not digested again
+        assertSame(digest, msgMgr.getDigest());
+        assertTrue(msgMgr.getMismatchedMessages(otherMsgMgr.getDigest().buckets()).isEmpty());
+        // comparison reuses the cached digest
+        assertSame(digest, msgMgr.getDigest());
+
+        // only the bucket with the different message is mismatched
+        long id = 3 * bucketWidth + 1;
+        msgMgr.addMessage(id, PEER_ID, "Extra message");
+        Map<Long, Message> mismatched = msgMgr.getMismatchedMessages(otherMsgMgr.getDigest().buckets());
+        assertEquals(List.of(3 * bucketWidth, id), new ArrayList<>(mismatched.keySet()));
+        assertTrue(otherMsgMgr.getMismatchedMessages(msgMgr.getDigest().buckets()).keySet()
+                .contains(3 * bucketWidth));
+        // the same id with different content does not match either
+        otherMsgMgr.addMessage(id, PEER_ID, "Changed message");
+        assertEquals(2, msgMgr.getMismatchedMessages(otherMsgMgr.getDigest().buckets()).size());
+        // peer without messages gets everything
+        assertEquals(HistoryDigest.BUCKETS + 1, msgMgr.getMismatchedMessages(Map.of()).size());
+    }
+
+    @Test
+    public void testSerializedMessagesCache() {
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, store);
+        msgMgr.addMessage(1L, PEER_ID, "Message 1");
+        AtomicInteger serializations = new AtomicInteger();
+        Function<Map<Long, Message>, byte[]> serializer = messages -> {
+            serializations.incrementAndGet();
+            return messages.keySet().toString().getBytes(StandardCharsets.UTF_8);
+        };
+        SerializedHistory first = msgMgr.getSerializedMessages("test", serializer);
+        assertSame(first.bytes(), msgMgr.getSerializedMessages("test", serializer).bytes());
+        assertTrue(first.modifiedMs() <= System.currentTimeMillis());
+        assertEquals(1, serializations.get());
+        // other format is cached separately
+        msgMgr.getSerializedMessages("other", serializer);
+        assertEquals(2, serializations.get());
+
+        msgMgr.addMessage(2L, PEER_ID, "Message 2");
+        SerializedHistory next = msgMgr.getSerializedMessages("test", serializer);
+        assertEquals("[1, 2]", new String(next.bytes(), StandardCharsets.UTF_8));
+        assertEquals(msgMgr.getVersion(), next.version());
+        assertTrue(next.modifiedMs() >= first.modifiedMs());
+        assertEquals(3, serializations.get());
+    }
+
+    @Test
+    public void testClearSentNewMessagesOnly() {
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, store);
+        msgMgr.addNewMessage(PEER_ID, "Sent message");
+        Map<Long, Message> sent = msgMgr.getNewMessages();
+        // make sure the next message gets another time-stamped id
+        sleep(2);
+        msgMgr.addNewMessage(PEER_ID, "Not sent message");
+        msgMgr.clearNewMessages(sent.keySet());
+        Map<Long, Message> left = msgMgr.getNewMessages();
+        assertEquals(1, left.size());
+        assertEquals("Not sent message", left.values().iterator().next().message());
+        assertTrue(msgMgr.hasNewMessages());
+        msgMgr.clearNewMessages();
+        assertFalse(msgMgr.hasNewMessages());
+    }
+
+    @Test
+    public void testRejectedNewMessageNotQueued() {
+        // generator behind the full history, e.g. after the clock went back
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, store, null, () -> 1L);
+        for (long id = 2; id <= HISTORY_LIMIT + 1; id++) {
+            msgMgr.addMessage(id, PEER_ID, "Message " + id);
+        }
+        msgMgr.addNewMessage(PEER_ID, "Rejected message");
+        assertNull(msgMgr.getMessages().get(1L));
+        assertFalse(msgMgr.hasNewMessages());
+    }
+
+    @Test
+    public void testConcurrentWrites() throws InterruptedException {
+        int threads = 8;
+        int messagesPerThread = 2_000;
+        MessagesManager msgMgr = new MessagesManager(HISTORY_LIMIT, store);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < messagesPerThread; i++) {
+                        long id = (long) i * threads + offset;
+                        msgMgr.addMessage(id, PEER_ID, "Message " + id);
+                        if (i % 100 == 0) {
+                            // snapshot must never be broken by concurrent writes
+                            assertFalse(msgMgr.getMessages().size() > HISTORY_LIMIT);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertNull(failure.get());
+        Map<Long, Message> messages = msgMgr.getMessages();
+        assertEquals(HISTORY_LIMIT, messages.size());
+        // only the newest messages are kept
+        long lastId = (long) messagesPerThread * threads - 1;
+        assertTrue(messages.containsKey(lastId));
+        assertTrue(messages.keySet().stream().allMatch(id -> id > lastId - HISTORY_LIMIT * 2));
+    }
+
+    private void sleep(long sleepMs) {
+        try {
+            Thread.sleep(sleepMs);
+        } catch (InterruptedException e) {
+        }
+    }
+}
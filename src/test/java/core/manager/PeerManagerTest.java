@@ -0,0 +1,199 @@
+package core.manager;
+
+import core.model.Peer;
+import core.model.PeerInfo;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PeerManagerTest {
+
+    private static final String PEER_ID = "PeerId";
+    private static final String IP_ADDRESS = "127.0.0.1";
+    private static final int PORT = 9876;
+    private static final int EXPIRATION_MS = 300;
+
+    @Test
+    public void testHeartbeatUpdatesPeer() {
+        PeerManager peerMgr = new PeerManager(EXPIRATION_MS);
+        peerMgr.addPeer(PEER_ID, IP_ADDRESS, PORT);
+        Peer peer = peerMgr.getPeers().iterator().next();
+        sleep(EXPIRATION_MS / 3);
+        peerMgr.addPeer(PEER_ID, IP_ADDRESS, PORT);
+        assertEquals(1, peerMgr.getPeers().size());
+        // check-in date is refreshed in place
+        assertTrue(peerMgr.getPeers().iterator().next().lastCheckinDate().after(peer.lastCheckinDate()));
+    }
+
+    @Test
+    public void testActivePeerNotExpired() {
+        PeerManager peerMgr = new PeerManager(EXPIRATION_MS);
+        List<Peer> expired = new ArrayList<>();
+        peerMgr.addExpirationListener(expired::add);
+        // peer checking in within the timeout stays known well after the first timeout
+        for (int i = 0; i < 6; i++) {
+            peerMgr.addPeer(PEER_ID, IP_ADDRESS, PORT);
+            sleep(EXPIRATION_MS / 3);
+            assertEquals(1, peerMgr.getPeers().size());
+        }
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void testPeerExpired() {
+        PeerManager peerMgr = new PeerManager(EXPIRATION_MS);
+        List<Peer> expired = new ArrayList<>();
+        peerMgr.addExpirationListener(expired::add);
+        peerMgr.addPeer(PEER_ID, IP_ADDRESS, PORT);
+        peerMgr.addPeer("OtherPeerId", IP_ADDRESS, PORT + 1);
+        sleep(EXPIRATION_MS * 2 / 3);
+        peerMgr.addPeer("OtherPeerId", IP_ADDRESS, PORT + 1);
+        sleep(EXPIRATION_MS * 2 / 3);
+        // only the peer without heartbeat expired
+        assertEquals(1, peerMgr.getPeers().size());
+        assertEquals("OtherPeerId", peerMgr.getPeers().iterator().next().peerId());
+        assertEquals(1, expired.size());
+        assertEquals(PEER_ID, expired.get(0).peerId());
+
+        // expired peer is stored again once it checks in
+        peerMgr.addPeer(PEER_ID, IP_ADDRESS, PORT);
+        assertEquals(2, peerMgr.getPeers().size());
+        sleep(EXPIRATION_MS * 2);
+        assertTrue(peerMgr.getPeers().isEmpty());
+        assertEquals(3, expired.size());
+    }
+
+    @Test
+    public void testCheckinDuringExpiry() {
+        PeerManager peerMgr = new PeerManager(EXPIRATION_MS);
+        List<Peer> expired = new ArrayList<>();
+        peerMgr.addExpirationListener(expired::add);
+        peerMgr.addPeer(PEER_ID, IP_ADDRESS, PORT);
+        Peer snapshot = peerMgr.getPeers().iterator().next();
+        // peer checks in after the expiry took its snapshot, but before it is removed
+        sleep(10);
+        peerMgr.addPeer(PEER_ID, IP_ADDRESS, PORT);
+        long now = snapshot.lastCheckinDate().getTime() + EXPIRATION_MS + 1;
+        peerMgr.expire(snapshot, snapshot, now);
+        assertEquals(1, peerMgr.getPeers().size());
+        assertTrue(expired.isEmpty());
+
+        // snapshot which is still stored expires
+        Peer current = peerMgr.getPeers().iterator().next();
+        peerMgr.expire(current, current, current.lastCheckinDate().getTime() + EXPIRATION_MS + 1);
+        assertTrue(peerMgr.getPeers().isEmpty());
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void testMergePeer() {
+        PeerManager peerMgr = new PeerManager(EXPIRATION_MS * 100);
+        // peers not seen within the expiration timeout are ignored
+        assertFalse(peerMgr.mergePeer(PEER_ID, IP_ADDRESS, PORT, EXPIRATION_MS * 100));
+        assertTrue(peerMgr.getPeers().isEmpty());
+
+        assertTrue(peerMgr.mergePeer(PEER_ID, IP_ADDRESS, PORT, EXPIRATION_MS * 10));
+        Date seen = peerMgr.getPeers().iterator().next().lastCheckinDate();
+        // older report does not move the check-in date back, fresher one moves it forward
+        assertFalse(peerMgr.mergePeer(PEER_ID, IP_ADDRESS, PORT, EXPIRATION_MS * 50));
+        assertEquals(seen, peerMgr.getPeers().iterator().next().lastCheckinDate());
+        assertFalse(peerMgr.mergePeer(PEER_ID, IP_ADDRESS, PORT, 0));
+        assertTrue(peerMgr.getPeers().iterator().next().lastCheckinDate().after(seen));
+    }
+
+    @Test
+    public void testMergedPeerExpired() {
+        PeerManager peerMgr = new PeerManager(EXPIRATION_MS);
+        peerMgr.addPeer(PEER_ID, IP_ADDRESS, PORT);
+        // gossiped peer expires as if it was discovered directly
+        assertTrue(peerMgr.mergePeer("OtherPeerId", IP_ADDRESS, PORT + 1, EXPIRATION_MS / 2));
+        sleep(EXPIRATION_MS * 2 / 3);
+        assertEquals(1, peerMgr.getPeers().size());
+        assertEquals(PEER_ID, peerMgr.getPeers().iterator().next().peerId());
+    }
+
+    @Test
+    public void testRecentPeers() {
+        PeerManager peerMgr = new PeerManager(EXPIRATION_MS * 100);
+        peerMgr.mergePeer("OldPeerId", IP_ADDRESS, PORT, 2000);
+        peerMgr.addPeer(PEER_ID, IP_ADDRESS, PORT + 1);
+        peerMgr.mergePeer("OtherPeerId", IP_ADDRESS, PORT + 2, 1000);
+        List<PeerInfo> recent = peerMgr.getRecentPeers(2);
+        assertEquals(List.of(PEER_ID, "OtherPeerId"), recent.stream().map(PeerInfo::peerId).toList());
+        assertTrue(recent.get(0).ageMs() < 1000);
+        assertTrue(recent.get(1).ageMs() >= 1000);
+    }
+
+    @Test
+    public void testAvailablePeers() {
+        PeerManager peerMgr = new PeerManager(EXPIRATION_MS * 100);
+        peerMgr.addPeer("FastPeerId", IP_ADDRESS, PORT);
+        peerMgr.addPeer("SlowPeerId", IP_ADDRESS, PORT + 1);
+        peerMgr.addPeer("FailingPeerId", IP_ADDRESS, PORT + 2);
+        Map<String, Peer> peers = new HashMap<>();
+        peerMgr.getPeers().forEach(peer -> peers.put(peer.peerId(), peer));
+        long now = System.currentTimeMillis();
+        peerMgr.getHealth(peers.get("FastPeerId")).recordSuccess(2, now);
+        peerMgr.getHealth(peers.get("SlowPeerId")).recordSuccess(200, now);
+        peerMgr.getHealth(peers.get("FailingPeerId")).recordFailure(now);
+        // failing peer is backed off, fast peer goes first
+        assertEquals(List.of("FastPeerId", "SlowPeerId"),
+                peerMgr.getAvailablePeers().stream().map(Peer::peerId).toList());
+    }
+
+    @Test
+    public void testHealthBackoff() {
+        PeerHealth health = new PeerHealth();
+        long now = 1_000_000;
+        assertTrue(health.isAvailable(now));
+        // backoff doubles with every failure, jitter keeps it within the upper half
+        health.recordFailure(now);
+        assertFalse(health.isAvailable(now + 499));
+        assertTrue(health.isAvailable(now + 1000));
+        health.recordFailure(now);
+        health.recordFailure(now);
+        assertFalse(health.isAvailable(now + 1999));
+        assertTrue(health.isAvailable(now + 4000));
+        assertEquals(3, health.getConsecutiveFailures());
+        assertEquals(1.0, health.errorRate(), 0.001);
+
+        // success resets the backoff
+        health.recordSuccess(20, now);
+        assertTrue(health.isAvailable(now));
+        assertEquals(now, health.getLastSuccessMs());
+        assertEquals(0.75, health.errorRate(), 0.001);
+    }
+
+    @Test
+    public void testAdaptiveTimeouts() {
+        PeerHealth health = new PeerHealth();
+        // unknown peer gets the maximal timeouts
+        assertEquals(1000, health.connectTimeout(1000));
+        assertEquals(5000, health.exchangeTimeout(5000));
+        for (int i = 0; i < 20; i++) {
+            health.recordConnect(100);
+            health.recordSuccess(400, System.currentTimeMillis());
+        }
+        assertEquals(400, health.connectTimeout(1000));
+        // stable round trip time converges to it
+        int timeout = health.exchangeTimeout(5000);
+        assertTrue(timeout >= 400 && timeout < 600);
+        // never above the maximum
+        assertEquals(300, health.exchangeTimeout(300));
+    }
+
+    private void sleep(long sleepMs) {
+        try {
+            Thread.sleep(sleepMs);
+        } catch (InterruptedException e) {
+        }
+    }
+}